@@ -14,20 +14,50 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.burgetr.segm.Segmentator;
 import org.burgetr.segm.tagging.taggers.PersonsTagger;
 import org.burgetr.segm.tagging.taggers.Tagger;
+import org.fit.burgetr.webstorm.util.ArticleHistory;
+import org.fit.burgetr.webstorm.util.AtomicCountMetric;
+import org.fit.burgetr.webstorm.util.DomPruner;
+import org.fit.burgetr.webstorm.util.DomTextAnalyzer;
+import org.fit.burgetr.webstorm.util.FeatureCache;
+import org.fit.burgetr.webstorm.util.Fingerprint;
+import org.fit.burgetr.webstorm.util.KeywordRelevance;
 import org.fit.burgetr.webstorm.util.LogicalTagLookup;
+import org.fit.burgetr.webstorm.util.NamePrefilter;
+import org.fit.burgetr.webstorm.util.NameCache;
+import org.fit.burgetr.webstorm.util.PageAnalysis;
+import org.fit.burgetr.webstorm.util.SiteTemplates;
 import org.joda.time.DateTime;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import cz.vutbr.fit.monitoring.Monitoring;
+import backtype.storm.Config;
+import backtype.storm.Constants;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.IRichBolt;
@@ -39,14 +69,16 @@ import backtype.storm.tuple.Values;
 /**
  * A bolt that analyzes a web page and emits the discovered name-keyword and name-image relationships.
  * Accepts: (title, base_url, html_code, extracted_images, tuple_uuid )
- * Emits: (name, keyword, base_url)+
- *        (name, image_url, base_url, image_data, tuple_uuid)+
+ * Emits: (name, keyword, base_url)+ or (name_keywords, base_url) in the batched mode
+ *        (names, image_url, image_data, tuple_uuid, image_hash)+ for each distinct image
  * @author burgetr and ikouril
  */
 public class AnalyzerBolt implements IRichBolt
 {
     private static final long serialVersionUID = 1L;
     private static final Logger log = LoggerFactory.getLogger(AnalyzerBolt.class);
+    /** The share (in percent) of the analysis time limit given to the layout analysis when the text fallback is used */
+    private static final int LAYOUT_TIME_SHARE = 75;
     
     private String webstormId;
     
@@ -55,6 +87,42 @@ public class AnalyzerBolt implements IRichBolt
     private String imgStreamId;
     private Monitoring monitor;
     private String hostname;
+    private boolean batchKeywords = false;
+    private long analysisTimeout = 0;
+    private boolean textFallback = true;
+    private transient ExecutorService analysisExecutor;
+    private transient AtomicCountMetric timeoutMetric;
+    private transient AtomicCountMetric fallbackMetric;
+    private transient AtomicCountMetric prefilterMetric;
+    private DomPruner domPruner = null;
+    private boolean namePrefilter = false;
+    private int templateMinPages = 0;
+    private transient SiteTemplates siteTemplates;
+    private transient AtomicCountMetric templateMetric;
+    /** Site templates shared by all the executors in the worker */
+    private static SiteTemplates sharedTemplates;
+    private int nameCacheSize = 0;
+    private transient NameCache nameCache;
+    /** Name recognition cache shared by all the executors in the worker */
+    private static NameCache sharedNameCache;
+    /** Set when the name cache metric has been registered by one of the executors in the worker */
+    private static boolean nameCacheMetricRegistered;
+    private int historySize = 0;
+    private transient ArticleHistory articleHistory;
+    private transient AtomicCountMetric unchangedMetric;
+    /** Article history shared by all the executors in the worker */
+    private static ArticleHistory sharedHistory;
+    private int topKeywords = 0;
+    private transient KeywordRelevance.Local keywordRelevance;
+    /** Keyword document frequencies shared by all the executors in the worker */
+    private static KeywordRelevance sharedRelevance;
+    private int analysisThreads = 0;
+    private int maxPendingPages = 0;
+    private transient ExecutorService workerPool;
+    private transient Semaphore pendingPages;
+    /** The pages submitted to the worker pool in the input order */
+    private transient ArrayDeque<FinishedPage> finishedPages;
+    
     /**
      * Creates a new AnalyzerBolt.
      * @param kwStreamId the identifier of the name-keyword output stream
@@ -71,11 +139,171 @@ public class AnalyzerBolt implements IRichBolt
         monitor=new Monitoring(webstormId,"knot28.fit.vutbr.cz","webstorm","webstormdb88pass","webstorm");
     }
 
+    /**
+     * Switches the name-keyword output stream to the batched mode. In the batched mode, a single tuple
+     * (name_keywords, base_url) is emitted for each page where name_keywords maps the names to the lists
+     * of the related keywords. Otherwise, a separate (name, keyword, base_url) tuple is emitted for each pair.
+     * @param batchKeywords {@code true} for emitting a single name-keyword tuple per page
+     */
+    public void setBatchKeywords(boolean batchKeywords)
+    {
+        this.batchKeywords = batchKeywords;
+    }
+
+    /**
+     * Sets the time limit for analyzing a single page. When the analysis is not finished in time, it is
+     * abandoned and either a text-only analysis without the page layout is used instead or the tuple fails.
+     * The layout computation cannot be interrupted, so an abandoned analysis keeps running in the background
+     * until it finishes but its results are discarded and it does not update the shared state (site templates,
+     * article history). The number of the analyses running at the same time is limited; when the limit is reached
+     * by the abandoned analyses, the new pages are treated as timed out immediately. With the text fallback,
+     * the layout analysis may only use a part of the time limit and the text-only analysis uses the rest;
+     * the names found until the limit are used. The limit should be well below the topology message timeout.
+     * @param timeout the maximal analysis time of a page in milliseconds (including the fallback) or 0 for no limit
+     * @param textFallback {@code true} for using the text-only analysis when the time limit is exceeded,
+     * {@code false} for failing the tuple
+     */
+    public void setAnalysisTimeout(long timeout, boolean textFallback)
+    {
+        this.analysisTimeout = timeout;
+        this.textFallback = textFallback;
+    }
+
+    /**
+     * Enables analyzing the pages on an internal pool of worker threads. The analysis results are still
+     * emitted and the tuples acked from the executor thread in the input order; a slow page holds back
+     * the results of the pages received after it (and their slots of the pending pages).
+     * @param threads the number of worker threads, 0 for analyzing the pages directly in the executor thread,
+     * a negative value for using the number of the available processors
+     * @param maxPending the maximal number of pages being analyzed at the same time, 0 for twice the number of threads 
+     */
+    public void setAnalysisThreads(int threads, int maxPending)
+    {
+        this.analysisThreads = threads;
+        this.maxPendingPages = maxPending;
+    }
+
+    /**
+     * Sets the pruner used for removing the non-content parts of the pages before the layout is computed.
+     * @param domPruner the pruner to be used or {@code null} for analyzing the complete pages
+     */
+    public void setDomPruner(DomPruner domPruner)
+    {
+        this.domPruner = domPruner;
+    }
+
+    /**
+     * Enables a quick check for the name candidates (adjacent capitalized words) in the plain page text before
+     * the page is segmented. The name recognition is not used for the check. The pages that contain no candidates
+     * are acknowledged immediately without any further analysis.
+     * @param namePrefilter {@code true} for enabling the check
+     */
+    public void setNamePrefilter(boolean namePrefilter)
+    {
+        this.namePrefilter = namePrefilter;
+    }
+
+    /**
+     * Enables learning the templates of the individual sites and removing the recognized template blocks
+     * (headers, footers, sidebars, etc.) from the analyzed pages. The templates are shared by all
+     * the executors running in the same worker.
+     * @param minPages the number of different pages of the site where a block must have appeared
+     * before it is considered as a template block, 0 for disabling the template recognition
+     */
+    public void setSiteTemplates(int minPages)
+    {
+        this.templateMinPages = minPages;
+    }
+
+    /**
+     * Enables caching the names recognized in the text strings. The cache is shared by all
+     * the executors running in the same worker.
+     * @param size the maximal number of the cached text strings, 0 for disabling the cache
+     */
+    public void setNameCacheSize(int size)
+    {
+        this.nameCacheSize = size;
+    }
+
+    /**
+     * Enables the incremental analysis of the repeatedly processed pages (e.g. updated articles). The results
+     * of the previous analysis are kept for each page url; the unchanged pages are skipped, the names and keywords
+     * are only discovered in the changed name blocks and only the relations that have not been emitted for the page
+     * yet are emitted. The history is shared by all the executors running in the same worker.
+     * @param maxUrls the maximal number of the remembered pages, 0 for disabling the incremental analysis
+     */
+    public void setIncrementalAnalysis(int maxUrls)
+    {
+        this.historySize = maxUrls;
+    }
+
+    /**
+     * Limits the number of keywords emitted for each name on a page. The keywords are scored by the number
+     * of the name occurrences they are related to and by their inverse document frequency estimated from
+     * the pages processed so far.
+     * @param k the maximal number of keywords per name and page, 0 for emitting all the keywords
+     */
+    public void setTopKeywords(int k)
+    {
+        this.topKeywords = k;
+    }
+
     @SuppressWarnings("rawtypes")
     public void prepare(Map stormConf, TopologyContext context, OutputCollector collector)
     {
         this.collector = collector;
         
+        if (analysisThreads != 0)
+        {
+            int threads = (analysisThreads > 0) ? analysisThreads : Runtime.getRuntime().availableProcessors();
+            int pending = (maxPendingPages > 0) ? maxPendingPages : 2 * threads;
+            workerPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "AnalyzerBolt-worker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            pendingPages = new Semaphore(pending);
+            finishedPages = new ArrayDeque<FinishedPage>();
+            log.info("Using " + threads + " analysis threads with up to " + pending + " pending pages");
+        }
+        if (analysisTimeout > 0)
+        {
+            //each page being analyzed may need a thread and another one may be still occupied by an abandoned analysis
+            int threads = 2 * ((analysisThreads > 0) ? analysisThreads : (analysisThreads < 0) ? Runtime.getRuntime().availableProcessors() : 1);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "AnalyzerBolt-analysis");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            analysisExecutor = executor;
+        }
+        timeoutMetric = context.registerMetric("analysis_timeouts", new AtomicCountMetric(), 60);
+        fallbackMetric = context.registerMetric("analysis_fallbacks", new AtomicCountMetric(), 60);
+        prefilterMetric = context.registerMetric("prefilter_skipped", new AtomicCountMetric(), 60);
+        templateMetric = context.registerMetric("template_blocks_removed", new AtomicCountMetric(), 60);
+        if (templateMinPages > 0)
+            siteTemplates = getSharedTemplates(templateMinPages);
+        unchangedMetric = context.registerMetric("unchanged_pages", new AtomicCountMetric(), 60);
+        if (historySize > 0)
+            articleHistory = getSharedHistory(historySize);
+        if (topKeywords > 0)
+            keywordRelevance = getSharedRelevance().createLocal();
+        if (nameCacheSize > 0)
+        {
+            nameCache = getSharedNameCache(nameCacheSize);
+            //the cache is shared, its statistics are reported by a single executor only
+            if (claimNameCacheMetric())
+                context.registerMetric("name_cache", nameCache.createMetric(), 60);
+        }
+        
         try{
 			hostname=InetAddress.getLocalHost().getHostName();
 		}
@@ -86,96 +314,487 @@ public class AnalyzerBolt implements IRichBolt
 
     public void execute(Tuple input)
     {
-    	    long startTime = System.nanoTime();
-    	    
-    		String baseurl = input.getString(1);
-	        String html = input.getString(2);
-	        @SuppressWarnings("unchecked")
-			HashMap<String,byte[]> allImg = (HashMap<String, byte[]>) input.getValue(3);
-	        String uuid=input.getString(4);
-	        DateTime now = DateTime.now();
-	        String dateString=String.valueOf(now.getYear())+"-"+String.valueOf(now.getMonthOfYear())+"-"+String.valueOf(now.getDayOfMonth())+"-"+String.valueOf(now.getHourOfDay())+"-"+String.valueOf(now.getMinuteOfHour())+"-"+String.valueOf(now.getSecondOfMinute())+"-"+String.valueOf(now.getMillisOfSecond());
-	        log.info("DateTime:"+dateString+", Analyzing url: " + baseurl+" ("+uuid+")");
-	        try
-	        {
-	            LogicalTagLookup lookup = processUrl(html, new URL(baseurl));
-	            Map<String, Set<String>> keywords = extractKeywords(lookup);
-	            Map<String, Set<URL>> images = extractImages(lookup);
-	            if (images!=null && keywords != null)
-	            {
-	                //emit name-keyword tuples
-	                for (Map.Entry<String, Set<String>> entry : keywords.entrySet())
-	                {
-	                    String name = entry.getKey();
-	                    for (String keyword : entry.getValue())
-	                    {
-	                        if (!keyword.equals(name)){
-	                        	try {
-									monitor.MonitorTuple("AnalyzerBolt", uuid,1, hostname);
-								} catch (SQLException e) {
-									// TODO Auto-generated catch block
-									e.printStackTrace();
-								}
-	                            collector.emit(kwStreamId, new Values(name, keyword, baseurl));
-	                        }
-	                    }
-	                }
-	                //emit name-image tuples
-	                
-	                for (Map.Entry<String, Set<URL>> entry : images.entrySet())
-	                {
-	                    String name = entry.getKey();
-	                    for (URL url : entry.getValue())
-	                    {
-	                    	URI uri = new URI(url.getProtocol(), url.getUserInfo(), url.getHost(), url.getPort(), url.getPath(), url.getQuery(), url.getRef());
-	                        String canonical = uri.toString();
-	                        byte[] image_data=allImg.get(canonical);
-	                        
-	                        if (image_data!=null){
-	                        	collector.emit(imgStreamId, new Values(name, url.toString(), image_data,uuid));
-	                        }
-	                    }
-	                }
-	                
-	                Long estimatedTime = System.nanoTime() - startTime;
-	                try {
-	                	monitor.MonitorTuple("AnalyzerBolt", uuid,1, hostname, estimatedTime);
-	                } catch (SQLException e) {
-	                	// TODO Auto-generated catch block
-	                	e.printStackTrace();
-	                }
-	                
-	                collector.ack(input);
-	            }
-	            else
-	                collector.fail(input);
-	        }
-	        catch (MalformedURLException e)
-	        {
-	            collector.fail(input);
-	        } catch (URISyntaxException e) {
-	        	collector.fail(input);
-			}
+        if (isTickTuple(input))
+        {
+            finishPending();
+            return;
+        }
+        
+        final long startTime = System.nanoTime();
+        String baseurl = input.getString(1);
+        final String html = input.getString(2);
+        String uuid=input.getString(4);
+        DateTime now = DateTime.now();
+        String dateString=String.valueOf(now.getYear())+"-"+String.valueOf(now.getMonthOfYear())+"-"+String.valueOf(now.getDayOfMonth())+"-"+String.valueOf(now.getHourOfDay())+"-"+String.valueOf(now.getMinuteOfHour())+"-"+String.valueOf(now.getSecondOfMinute())+"-"+String.valueOf(now.getMillisOfSecond());
+        log.info("DateTime:"+dateString+", Analyzing url: " + baseurl+" ("+uuid+")");
+        
+        final URL url;
+        try
+        {
+            url = new URL(baseurl);
+        }
+        catch (MalformedURLException e)
+        {
+            collector.fail(input);
+            return;
+        }
         
+        if (workerPool == null)
+        {
+            finishPage(input, analyzePage(html, url), startTime);
+        }
+        else
+        {
+            //wait for a free slot, finish the completed pages meanwhile
+            try
+            {
+                while (!pendingPages.tryAcquire(100, TimeUnit.MILLISECONDS))
+                    finishPending();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                collector.fail(input);
+                return;
+            }
+            final FinishedPage page = new FinishedPage(input, startTime);
+            finishedPages.add(page);
+            workerPool.execute(new Runnable() {
+                public void run()
+                {
+                    PageAnalysis analysis = null;
+                    try
+                    {
+                        analysis = analyzePage(html, url);
+                    }
+                    finally
+                    {
+                        page.finish(analysis);
+                    }
+                }
+            });
+            finishPending();
+        }
+    }
+    
+    /**
+     * Emits the results of an analyzed page and acks the input tuple. Must be called from the executor thread.
+     * @param input the input tuple
+     * @param analysis the analysis result or {@code null} when the analysis failed
+     * @param startTime the time when the tuple processing started
+     */
+    private void finishPage(Tuple input, PageAnalysis analysis, long startTime)
+    {
+        String baseurl = input.getString(1);
+        @SuppressWarnings("unchecked")
+        HashMap<String,byte[]> allImg = (HashMap<String, byte[]>) input.getValue(3);
+        String uuid=input.getString(4);
+        try
+        {
+            if (analysis != null)
+            {
+                Map<String, Set<String>> keywords = analysis.getKeywords();
+                Map<String, Set<URL>> images = analysis.getImages();
+                //emit name-keyword tuples
+                emitKeywords(keywords, baseurl, uuid);
+                //emit name-image tuples
+                emitImages(images, allImg, uuid);
+                
+                Long estimatedTime = System.nanoTime() - startTime;
+                try {
+                    monitor.MonitorTuple("AnalyzerBolt", uuid,1, hostname, estimatedTime);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+                
+                collector.ack(input);
+            }
+            else
+                collector.fail(input);
+        }
+        catch (URISyntaxException e)
+        {
+            collector.fail(input);
+        }
+    }
+    
+    /**
+     * Emits the results of the pages analyzed by the worker pool so far in the input order, i.e. up to
+     * the first page that is still being analyzed. Must be called from the executor thread.
+     */
+    private void finishPending()
+    {
+        if (finishedPages != null)
+        {
+            while (!finishedPages.isEmpty() && finishedPages.peek().isDone())
+            {
+                FinishedPage page = finishedPages.poll();
+                finishPage(page.input, page.getAnalysis(), page.startTime);
+                pendingPages.release();
+            }
+        }
+    }
+    
+    private static synchronized SiteTemplates getSharedTemplates(int minPages)
+    {
+        if (sharedTemplates == null)
+            sharedTemplates = new SiteTemplates(minPages);
+        return sharedTemplates;
+    }
+    
+    private static synchronized ArticleHistory getSharedHistory(int size)
+    {
+        if (sharedHistory == null)
+            sharedHistory = new ArticleHistory(size);
+        return sharedHistory;
+    }
+    
+    private static synchronized KeywordRelevance getSharedRelevance()
+    {
+        if (sharedRelevance == null)
+            sharedRelevance = new KeywordRelevance();
+        return sharedRelevance;
+    }
+    
+    private static synchronized NameCache getSharedNameCache(int size)
+    {
+        if (sharedNameCache == null)
+            sharedNameCache = new NameCache(size);
+        return sharedNameCache;
+    }
+    
+    private static synchronized boolean claimNameCacheMetric()
+    {
+        if (nameCacheMetricRegistered)
+            return false;
+        nameCacheMetricRegistered = true;
+        return true;
+    }
+    
+    private boolean isTickTuple(Tuple input)
+    {
+        return Constants.SYSTEM_COMPONENT_ID.equals(input.getSourceComponent())
+                && Constants.SYSTEM_TICK_STREAM_ID.equals(input.getSourceStreamId());
     }
 
     public void cleanup()
     {
+        if (keywordRelevance != null)
+            keywordRelevance.merge();
+        if (workerPool != null)
+            workerPool.shutdownNow();
+        if (analysisExecutor != null)
+            analysisExecutor.shutdownNow();
     }
 
     public void declareOutputFields(OutputFieldsDeclarer declarer)
     {
-        declarer.declareStream(kwStreamId, new Fields("name", "keyword", "baseurl"));
-        declarer.declareStream(imgStreamId, new Fields("name", "image_url", "image_bytes","uuid"));
+        if (batchKeywords)
+            declarer.declareStream(kwStreamId, new Fields("name_keywords", "baseurl"));
+        else
+            declarer.declareStream(kwStreamId, new Fields("name", "keyword", "baseurl"));
+        declarer.declareStream(imgStreamId, new Fields("names", "image_url", "image_bytes", "uuid", "image_hash"));
     }
 
     public Map<String, Object> getComponentConfiguration()
     {
-        return null;
+        if (analysisThreads != 0)
+        {
+            //the tick tuples are used for emitting the pages finished by the worker pool
+            Map<String, Object> conf = new HashMap<String, Object>();
+            conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+            return conf;
+        }
+        else
+            return null;
     }
     
     //===========================================================================================
     
+    /**
+     * A single page analysis that may be abandoned when it exceeds the time limit. The abandoned analysis
+     * cannot be stopped; it only checks the flag before it updates any shared state.
+     */
+    private class AnalysisTask implements Callable<PageAnalysis>
+    {
+        private String html;
+        private URL baseurl;
+        private ArticleHistory.Article article;
+        private boolean abandoned;
+        
+        public AnalysisTask(String html, URL baseurl, ArticleHistory.Article article)
+        {
+            this.html = html;
+            this.baseurl = baseurl;
+            this.article = article;
+        }
+
+        public PageAnalysis call()
+        {
+            return analyzeDocument(html, baseurl, article, this);
+        }
+        
+        public synchronized void abandon()
+        {
+            abandoned = true;
+        }
+        
+        public synchronized boolean isAbandoned()
+        {
+            return abandoned;
+        }
+    }
+    
+    /**
+     * A page submitted to the worker pool. The worker thread sets the result when the analysis is finished,
+     * the results are emitted by the executor thread.
+     */
+    private static class FinishedPage
+    {
+        public Tuple input;
+        public long startTime;
+        private PageAnalysis analysis;
+        private volatile boolean done;
+        
+        public FinishedPage(Tuple input, long startTime)
+        {
+            this.input = input;
+            this.startTime = startTime;
+        }
+        
+        public void finish(PageAnalysis analysis)
+        {
+            this.analysis = analysis;
+            done = true;
+        }
+        
+        public boolean isDone()
+        {
+            return done;
+        }
+        
+        public PageAnalysis getAnalysis()
+        {
+            return analysis;
+        }
+    }
+    
+    
+    /**
+     * Analyzes a page. When the incremental analysis is enabled, the unchanged pages are skipped and only
+     * the relations not emitted for the page before are returned.
+     * @param html the incoming html page
+     * @param baseurl the url of incoming page
+     * @return the analysis result or {@code null} when the page could not be processed
+     */
+    private PageAnalysis analyzePage(final String html, final URL baseurl)
+    {
+        if (articleHistory == null)
+        {
+            PageAnalysis analysis = analyzeWithTimeout(html, baseurl, null);
+            return selectKeywords(analysis, analysis);
+        }
+        
+        long pageHash = Fingerprint.mix(Fingerprint.of(html), html.length());
+        ArticleHistory.Article article = articleHistory.getArticle(baseurl.toString());
+        if (article.isUnchanged(pageHash))
+        {
+            log.info("No change in " + baseurl + ", skipping the analysis");
+            unchangedMetric.incr();
+            return new PageAnalysis();
+        }
+        PageAnalysis analysis = analyzeWithTimeout(html, baseurl, article);
+        if (analysis == null)
+            return null;
+        //the keywords emitted before do not take the places of the new ones
+        PageAnalysis ret = selectKeywords(analysis, article.getNewRelations(analysis));
+        article.update(pageHash, analysis, ret);
+        return ret;
+    }
+    
+    /**
+     * Selects the most relevant keywords for each name when configured.
+     * @param analysis the complete analysis result counted in the keyword frequencies or {@code null}
+     * @param candidates the relations to select from, a subset of the complete result
+     * @return the candidates with the selected keywords
+     */
+    private PageAnalysis selectKeywords(PageAnalysis analysis, PageAnalysis candidates)
+    {
+        if (analysis == null || keywordRelevance == null)
+            return candidates;
+        keywordRelevance.count(analysis);
+        return keywordRelevance.selectTopKeywords(candidates, topKeywords);
+    }
+    
+    /**
+     * Analyzes a page within the configured time limit.
+     * @param html the incoming html page
+     * @param baseurl the url of incoming page
+     * @param article the history of the page or {@code null} when the incremental analysis is not used
+     * @return the analysis result or {@code null} when the page could not be processed
+     */
+    private PageAnalysis analyzeWithTimeout(final String html, final URL baseurl, final ArticleHistory.Article article)
+    {
+        AnalysisTask task = new AnalysisTask(html, baseurl, article);
+        if (analysisTimeout <= 0)
+            return task.call();
+        
+        //the fallback uses the rest of the time limit
+        long deadline = System.currentTimeMillis() + analysisTimeout;
+        long layoutTimeout = textFallback ? analysisTimeout * LAYOUT_TIME_SHARE / 100 : analysisTimeout;
+        Future<PageAnalysis> future = null;
+        try
+        {
+            future = analysisExecutor.submit(task);
+            return future.get(layoutTimeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //all the analysis threads are occupied by the abandoned analyses
+            return analysisTimedOut(task, html, baseurl, deadline);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            return analysisTimedOut(task, html, baseurl, deadline);
+        } catch (ExecutionException e) {
+            log.error("Analysis of " + baseurl + " failed: " + e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            task.abandon();
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+    
+    /**
+     * Abandons a timed out analysis and uses the text only analysis when configured.
+     * @param task the abandoned analysis
+     * @param html the incoming html page
+     * @param baseurl the url of incoming page
+     * @param deadline the time (in milliseconds since the epoch) when the time limit of the page is exceeded
+     * @return the text analysis result marked as partial or {@code null} when the fallback is not used
+     */
+    private PageAnalysis analysisTimedOut(AnalysisTask task, String html, URL baseurl, long deadline)
+    {
+        task.abandon();
+        timeoutMetric.incr();
+        if (textFallback)
+        {
+            log.warn("Layout analysis of " + baseurl + " timed out, using the text only analysis");
+            fallbackMetric.incr();
+            PageAnalysis ret = analyzeText(html, baseurl, deadline);
+            ret.setPartial(true);
+            return ret;
+        }
+        else
+        {
+            log.warn("Analysis of " + baseurl + " timed out after " + analysisTimeout + " ms");
+            return null;
+        }
+    }
+    
+    /**
+     * Analyzes a page: prunes the DOM, removes the site template blocks and checks for the names when configured and then
+     * segments the page and discovers the relationships.
+     * @param html the incoming html page
+     * @param baseurl the url of incoming page
+     * @param article the history of the page or {@code null} when the incremental analysis is not used
+     * @param task the analysis task used for checking whether the analysis has been abandoned
+     * @return the analysis result or {@code null} when the page could not be processed or the analysis has been abandoned
+     */
+    private PageAnalysis analyzeDocument(String html, URL baseurl, ArticleHistory.Article article, AnalysisTask task)
+    {
+        if (domPruner != null || siteTemplates != null || namePrefilter)
+        {
+            Document doc = Jsoup.parse(html, baseurl.toString());
+            boolean modified = false;
+            if (domPruner != null)
+            {
+                int cnt = domPruner.prune(doc);
+                log.debug("Pruned " + cnt + " elements from " + baseurl);
+                modified = true;
+            }
+            if (siteTemplates != null && doc.body() != null)
+            {
+                int cnt;
+                synchronized (task)
+                {
+                    //an abandoned analysis must not learn the page
+                    if (task.isAbandoned())
+                        return null;
+                    cnt = siteTemplates.removeTemplateBlocks(baseurl.getHost(), baseurl.toString(), doc.body());
+                }
+                if (cnt > 0)
+                {
+                    log.debug("Removed " + cnt + " template blocks from " + baseurl);
+                    templateMetric.incrBy(cnt);
+                    modified = true;
+                }
+            }
+            if (modified)
+                html = doc.outerHtml();
+            if (namePrefilter && !containsNames(doc))
+            {
+                log.info("No name candidates found in " + baseurl + ", skipping the segmentation");
+                prefilterMetric.incr();
+                return new PageAnalysis();
+            }
+        }
+        if (task.isAbandoned())
+            return null;
+        LogicalTagLookup lookup = processUrl(html, baseurl);
+        if (lookup == null || task.isAbandoned())
+            return null;
+        if (article != null)
+            lookup.setPreviousBlocks(article.getBlocks());
+        Tagger p = new PersonsTagger(1);
+        PageAnalysis ret = analyze(lookup, p);
+        if (article != null)
+        {
+            synchronized (task)
+            {
+                //the fallback result has been used for an abandoned analysis
+                if (task.isAbandoned())
+                    return null;
+                article.setBlocks(lookup.getBlocks());
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Checks whether the plain text of the document may contain any names. The name recognition is not used,
+     * the check only looks for the name candidates.
+     * @param doc the document
+     * @return {@code false} when the document certainly contains no names
+     */
+    private boolean containsNames(Document doc)
+    {
+        Element body = doc.body();
+        if (body == null)
+            return false;
+        return NamePrefilter.containsCandidate(body.text());
+    }
+    
+    /**
+     * Analyzes the page text only, without computing the layout.
+     * @param html the incoming html page
+     * @param baseurl the url of incoming page
+     * @param deadline the time (in milliseconds since the epoch) when the analysis stops and returns the names found so far
+     * @return the analysis result
+     */
+    private PageAnalysis analyzeText(String html, URL baseurl, long deadline)
+    {
+        Document doc = Jsoup.parse(html, baseurl.toString());
+        if (domPruner != null)
+            domPruner.prune(doc);
+        DomTextAnalyzer analyzer = new DomTextAnalyzer(doc);
+        analyzer.setNameCache(nameCache);
+        Tagger p = new PersonsTagger(1);
+        PageAnalysis ret = analyzer.analyze(p, deadline);
+        if (analyzer.isIncomplete())
+            log.warn("Text analysis of " + baseurl + " exceeded the time limit, using a partial result");
+        return ret;
+    }
+    
     /**
      * Processes url to extract tags
      * @param html the incoming html page
@@ -190,6 +809,7 @@ public class AnalyzerBolt implements IRichBolt
             Segmentator segm = new Segmentator();
             segm.segmentInputStream(is, baseurl);
             LogicalTagLookup lookup = new LogicalTagLookup(segm.getLogicalTree());
+            lookup.setNameCache(nameCache);
             return lookup;
         } catch (Exception e)
         {
@@ -200,27 +820,120 @@ public class AnalyzerBolt implements IRichBolt
     }
 
     /**
-     * Extracts keywords from LogicalTagLookup
-     * @param lookup the LogicalTaglookup object
-     * @return the map of name and related keywords to them
+     * Emits the name-keyword relationships to the keyword stream.
+     * @param keywords the map of names and the related keywords
+     * @param baseurl the url of the page
+     * @param uuid the tuple uuid used for monitoring
      */
-    private Map<String, Set<String>> extractKeywords(LogicalTagLookup lookup)
+    private void emitKeywords(Map<String, Set<String>> keywords, String baseurl, String uuid)
     {
-        Tagger p = new PersonsTagger(1);
-        Map<String, List<String>> related = lookup.findRelatedText(p);
-        Map<String, Set<String>> keywords = lookup.extractRelatedKeywords(related);
-        return keywords;
+        if (batchKeywords)
+        {
+            HashMap<String, ArrayList<String>> batch = new HashMap<String, ArrayList<String>>();
+            int count = 0;
+            for (Map.Entry<String, Set<String>> entry : keywords.entrySet())
+            {
+                String name = entry.getKey();
+                ArrayList<String> list = new ArrayList<String>(entry.getValue().size());
+                for (String keyword : entry.getValue())
+                {
+                    if (!keyword.equals(name))
+                        list.add(keyword);
+                }
+                if (!list.isEmpty())
+                {
+                    batch.put(name, list);
+                    count += list.size();
+                }
+            }
+            if (!batch.isEmpty())
+            {
+                try {
+                    monitor.MonitorTuple("AnalyzerBolt", uuid, count, hostname);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+                collector.emit(kwStreamId, new Values(batch, baseurl));
+            }
+        }
+        else
+        {
+            for (Map.Entry<String, Set<String>> entry : keywords.entrySet())
+            {
+                String name = entry.getKey();
+                for (String keyword : entry.getValue())
+                {
+                    if (!keyword.equals(name))
+                    {
+                        try {
+                            monitor.MonitorTuple("AnalyzerBolt", uuid, 1, hostname);
+                        } catch (SQLException e) {
+                            e.printStackTrace();
+                        }
+                        collector.emit(kwStreamId, new Values(name, keyword, baseurl));
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Emits the name-image relationships to the image stream. Each distinct image is emitted once
+     * together with the list of all the related names.
+     * @param images the map of names and the related image urls
+     * @param allImg the downloaded image data for the canonical image urls
+     * @param uuid the tuple uuid
+     * @throws URISyntaxException 
+     */
+    private void emitImages(Map<String, Set<URL>> images, Map<String, byte[]> allImg, String uuid) throws URISyntaxException
+    {
+        Map<String, ArrayList<String>> imageNames = new LinkedHashMap<String, ArrayList<String>>();
+        Map<String, String> imageUrls = new HashMap<String, String>();
+        for (Map.Entry<String, Set<URL>> entry : images.entrySet())
+        {
+            String name = entry.getKey();
+            for (URL url : entry.getValue())
+            {
+                URI uri = new URI(url.getProtocol(), url.getUserInfo(), url.getHost(), url.getPort(), url.getPath(), url.getQuery(), url.getRef());
+                String canonical = uri.toString();
+                if (allImg.containsKey(canonical))
+                {
+                    ArrayList<String> names = imageNames.get(canonical);
+                    if (names == null)
+                    {
+                        names = new ArrayList<String>();
+                        imageNames.put(canonical, names);
+                        imageUrls.put(canonical, url.toString());
+                    }
+                    names.add(name);
+                }
+            }
+        }
+        
+        for (Map.Entry<String, ArrayList<String>> entry : imageNames.entrySet())
+        {
+            String canonical = entry.getKey();
+            byte[] image_data = allImg.get(canonical);
+            if (image_data != null)
+            {
+                //the content hash allows grouping the same images to the same extractor task
+                String hash = FeatureCache.contentKey(image_data);
+                collector.emit(imgStreamId, new Values(entry.getValue(), imageUrls.get(canonical), image_data, uuid, hash));
+            }
+        }
     }
     
     /**
-     * Extracts image from LogicalTagLookup
+     * Extracts the name-keyword and name-image relationships from LogicalTagLookup in a single pass
      * @param lookup the LogicalTaglookup object
-     * @return the map of name and related picture urls
+     * @param tagger the name tagger
+     * @return the analysis result or {@code null} when the page could not be processed
      */
-    private Map<String, Set<URL>> extractImages(LogicalTagLookup lookup)
+    private PageAnalysis analyze(LogicalTagLookup lookup, Tagger tagger)
     {
-        Tagger p = new PersonsTagger(1);
-        return lookup.extractRelatedImages(p);
+        if (lookup == null)
+            return null;
+        return lookup.analyze(tagger);
     }
     
 }
\ No newline at end of file
@@ -16,6 +16,8 @@ import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.fit.burgetr.webstorm.util.ImageDecoder;
+import org.fit.burgetr.webstorm.util.ImageFilter;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -48,6 +50,7 @@ public class DownloaderBolt implements IRichBolt
     private String webstormId;
     private Monitoring monitor;
     private String hostname;
+    private ImageFilter imageFilter = null;
     
 
     /**
@@ -61,6 +64,16 @@ public class DownloaderBolt implements IRichBolt
     	monitor=new Monitoring(webstormId,"knot28.fit.vutbr.cz","webstorm","webstormdb88pass","webstorm");
     }
     
+    /**
+     * Sets the admission filter for the page images. The images rejected by the filter according to the
+     * {@code img} attributes are not downloaded at all, the remaining ones are checked as soon as their
+     * header is downloaded.
+     * @param imageFilter the filter or {@code null} for downloading all the images
+     */
+    public void setImageFilter(ImageFilter imageFilter)
+    {
+        this.imageFilter = imageFilter;
+    }
     
     @SuppressWarnings("rawtypes")
     @Override
@@ -93,6 +106,43 @@ public class DownloaderBolt implements IRichBolt
         }
         return outputStream.toByteArray();
     }
+    
+    /**
+     * Downloads an image and checks its dimensions using the image filter. The download is stopped as soon
+     * as the image header shows that the image is rejected.
+     * @param toDownload the image url
+     * @return the image data or {@code null} when the image has been rejected
+     * @throws IOException 
+     */
+    private byte[] downloadImage(URL toDownload) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int bytesRead;
+        int[] size = null;
+        boolean probed = false;
+        InputStream stream = toDownload.openStream();
+        try {
+            while ((bytesRead = stream.read(chunk)) > 0) {
+                outputStream.write(chunk, 0, bytesRead);
+                if (!probed && outputStream.size() >= ImageFilter.PROBE_BYTES) {
+                    probed = true;
+                    size = ImageDecoder.readSize(outputStream.toByteArray());
+                    if (size != null && !imageFilter.accept(size[0], size[1]))
+                        return null;
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        byte[] data = outputStream.toByteArray();
+        if (size == null) {
+            //short image or a long header: check the complete data
+            size = ImageDecoder.readSize(data);
+            if (size == null || !imageFilter.accept(size[0], size[1]))
+                return null;
+        }
+        return data;
+    }
 
     @Override
     public void execute(Tuple input)
@@ -121,13 +171,28 @@ public class DownloaderBolt implements IRichBolt
             Document document = (Document) Jsoup.connect(urlstring).get();
             Elements images = document.select("img[src~=(?i)\\.(png|jpe?g|gif)]");
 
+            int rejected = 0;
             for (Element image : images) {
+                if (imageFilter != null && !imageFilter.acceptElement(image)) {
+                    rejected++;
+                    continue;
+                }
                 String src=image.attr("src");
                 URL u = new URL(src);
                 URI uri = new URI(u.getProtocol(), u.getUserInfo(), u.getHost(), u.getPort(), u.getPath(), u.getQuery(), u.getRef());
                 String canonical = uri.toString();
-                allImg.put(canonical, downloadUrl(u));
+                if (imageFilter == null)
+                    allImg.put(canonical, downloadUrl(u));
+                else {
+                    byte[] data = downloadImage(u);
+                    if (data != null)
+                        allImg.put(canonical, data);
+                    else
+                        rejected++;
+                }
             }
+            if (rejected > 0)
+                log.debug("Rejected " + rejected + " images of " + urlstring);
             Long estimatedTime = System.nanoTime() - startTime;
             monitor.MonitorTuple("DownloaderBolt", uuid, 1,hostname, estimatedTime);
             collector.emit(new Values(title, urlstring, document.html(), allImg, uuid));
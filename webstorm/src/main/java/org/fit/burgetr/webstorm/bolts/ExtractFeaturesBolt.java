@@ -1,13 +1,25 @@
 package org.fit.burgetr.webstorm.bolts;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import cz.vutbr.fit.monitoring.Monitoring;
+import backtype.storm.Config;
+import backtype.storm.Constants;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.IRichBolt;
@@ -17,20 +29,23 @@ import backtype.storm.tuple.Tuple;
 import backtype.storm.tuple.Values;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
-import javax.imageio.ImageIO;
-
-import net.semanticmetadata.lire.imageanalysis.*;
+import org.fit.burgetr.webstorm.util.AtomicCountMetric;
+import org.fit.burgetr.webstorm.util.FeatureCache;
+import org.fit.burgetr.webstorm.util.FeatureExtractor;
+import org.fit.burgetr.webstorm.util.ImageDecoder;
+import org.fit.burgetr.webstorm.util.ImageFilter;
 
 /**
  * A bolt that extracts features from image
- * Accepts: (name, image_url, image_data, tuple_uuid)
- * Emits: (name,feature,image_data,tuple_uuid,image_url)
+ * Accepts: (names, image_url, image_data, tuple_uuid, image_hash)
+ * Emits: (names,feature,image_data,tuple_uuid,image_url,image_hash)
+ * where names is the list of all the names related to the image and feature is
+ * the {@link org.fit.burgetr.webstorm.util.FeatureBundle} of the configured descriptors
  * 
  * @author ikouril
  */
@@ -40,6 +55,26 @@ public class ExtractFeaturesBolt implements IRichBolt {
     private static final Logger log = LoggerFactory.getLogger(ExtractFeaturesBolt.class);
     private OutputCollector collector;
     public static final int MAX_IMAGE_DIMENSION = 1024;
+    public static final long MAX_IMAGE_PIXELS = 50000000L;
+    /** The descriptors extracted by default */
+    public static final String[] DEFAULT_DESCRIPTORS = {"CEDD"};
+    private String[] descriptors = DEFAULT_DESCRIPTORS;
+    private transient FeatureExtractor extractor;
+    private int maxImageDimension = MAX_IMAGE_DIMENSION;
+    private long maxImagePixels = MAX_IMAGE_PIXELS;
+    private ImageFilter imageFilter = null;
+    private transient ImageDecoder decoder;
+    private int featureCacheSize = 0;
+    private String featureCacheFile = null;
+    private transient FeatureCache featureCache;
+    private transient AtomicCountMetric cacheHitMetric;
+    private transient AtomicCountMetric cacheMissMetric;
+    /** Feature cache shared by all the executors in the worker */
+    private static FeatureCache sharedFeatureCache;
+    private int batchSize = 0;
+    private int extractionThreads = 0;
+    private transient ExecutorService workerPool;
+    private transient List<PendingImage> batch;
     private String webstormId;
     private Monitoring monitor;
     private String hostname;
@@ -55,12 +90,104 @@ public class ExtractFeaturesBolt implements IRichBolt {
 		webstormId=uuid;
 		monitor=new Monitoring(webstormId,"knot28.fit.vutbr.cz","webstorm","webstormdb88pass","webstorm");
 	}
+	
+	/**
+	 * Sets the image size limits. The images are decoded at a reduced resolution so that they do not exceed
+	 * the maximal dimension before the features are extracted.
+	 * @param maxDimension the maximal width and height of the decoded image (defaults to {@link #MAX_IMAGE_DIMENSION})
+	 * @param maxPixels the maximal number of pixels of the source image; larger images are skipped
+	 * (defaults to {@link #MAX_IMAGE_PIXELS})
+	 */
+	public void setImageLimits(int maxDimension, long maxPixels)
+	{
+	    this.maxImageDimension = maxDimension;
+	    this.maxImagePixels = maxPixels;
+	}
+
+	/**
+	 * Sets the LIRE descriptors to be extracted. All the descriptors are extracted from a single decoded image.
+	 * @param descriptors the descriptor class names, the names without a package (e.g. "CEDD", "FCTH", "JCD",
+	 * "ColorLayout", "EdgeHistogram") are taken from the LIRE image analysis package
+	 */
+	public void setDescriptors(String... descriptors)
+	{
+	    this.descriptors = descriptors;
+	}
+
+	/**
+	 * Sets the admission filter checked using the image header before the image is decoded.
+	 * @param imageFilter the filter or {@code null} for processing all the images
+	 */
+	public void setImageFilter(ImageFilter imageFilter)
+	{
+	    this.imageFilter = imageFilter;
+	}
+
+	/**
+	 * Enables caching the extracted features by the image content so that the repeated images are not decoded
+	 * and processed again. The cache is shared by all the executors running in the same worker.
+	 * @param size the maximal number of cached images, 0 for disabling the cache
+	 * @param file the local file used for persisting the cache or {@code null} for a memory-only cache
+	 */
+	public void setFeatureCache(int size, String file)
+	{
+	    this.featureCacheSize = size;
+	    this.featureCacheFile = file;
+	}
+
+	/**
+	 * Enables the batched mode: the incoming images are buffered and the features of the whole batch
+	 * are extracted in parallel on an internal thread pool. The results are emitted and the tuples acked
+	 * in the order of the input tuples. An incomplete batch is flushed every second.
+	 * The executor thread waits until the whole batch is processed, it does not accept any new tuples
+	 * (including the tick tuples) meanwhile; the batch size should be therefore kept small enough
+	 * with respect to the tuple timeout.
+	 * @param batchSize the maximal number of buffered images, 0 for processing each image directly in the executor thread
+	 * @param threads the number of worker threads, a negative value for using the number of the available processors
+	 */
+	public void setParallelExtraction(int batchSize, int threads)
+	{
+	    this.batchSize = batchSize;
+	    this.extractionThreads = threads;
+	}
+
+	/**
+	 * Sets the monitoring database used for recording the tuple processing times.
+	 * @param monitor the monitoring or {@code null} for disabling the monitoring
+	 */
+	public void setMonitoring(Monitoring monitor)
+	{
+	    this.monitor = monitor;
+	}
 
     @SuppressWarnings("rawtypes")
     @Override
     public void prepare(Map stormConf, TopologyContext context, OutputCollector collector)
     {
         this.collector = collector;
+        decoder = new ImageDecoder(maxImageDimension, maxImagePixels);
+        decoder.setFilter(imageFilter);
+        extractor = new FeatureExtractor(descriptors);
+        if (batchSize > 0)
+        {
+            int threads = (extractionThreads > 0) ? extractionThreads : Runtime.getRuntime().availableProcessors();
+            workerPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "ExtractFeaturesBolt-worker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            batch = new ArrayList<PendingImage>(batchSize);
+            log.info("Using " + threads + " extraction threads with batches of " + batchSize + " images");
+        }
+        if (featureCacheSize > 0)
+        {
+            featureCache = getSharedFeatureCache(featureCacheSize, featureCacheFile, getExtractionSignature());
+            cacheHitMetric = context.registerMetric("feature_cache_hits", new AtomicCountMetric(), 60);
+            cacheMissMetric = context.registerMetric("feature_cache_misses", new AtomicCountMetric(), 60);
+        }
         try{
 			hostname=InetAddress.getLocalHost().getHostName();
 		}
@@ -72,11 +199,14 @@ public class ExtractFeaturesBolt implements IRichBolt {
     @Override
     public void execute(Tuple input)
     {
+        if (isTickTuple(input)) {
+            flushBatch();
+            return;
+        }
+        
     	long startTime = System.nanoTime();
     	
-    	String name = input.getString(0);
         String image_url = input.getString(1);
-        byte[] image_data=input.getBinary(2);
         String uuid=input.getString(3);
         DateTime now = DateTime.now();
         String dateString=String.valueOf(now.getYear())+"-"+String.valueOf(now.getMonthOfYear())+"-"+String.valueOf(now.getDayOfMonth())+"-"+String.valueOf(now.getHourOfDay())+"-"+String.valueOf(now.getMinuteOfHour())+"-"+String.valueOf(now.getSecondOfMinute())+"-"+String.valueOf(now.getMillisOfSecond());
@@ -98,54 +228,224 @@ public class ExtractFeaturesBolt implements IRichBolt {
             collector.fail(input);
 		}
     	*/
-        InputStream in = new ByteArrayInputStream(image_data);
-        BufferedImage image=null;
-		try {
-			image = ImageIO.read(in);
-		} catch (IOException e) {
-			log.error("Corrupted image: " + e.getMessage());
-            collector.fail(input);
-		}
-    	LireFeature lireFeature = null;
-		try {
-			lireFeature = CEDD.class.newInstance();
-		} catch (InstantiationException e) {
-			log.error("Lire instantiation error: " + e.getMessage());
-            collector.fail(input);
-		} catch (IllegalAccessException e) {
-			log.error("Lire illegal access error: " + e.getMessage());
+        if (workerPool == null)
+        {
+            byte[] feature = null;
+            Exception error = null;
+            try {
+                feature = computeFeatures(input.getBinary(2), input.getString(4));
+            } catch (Exception e) {
+                error = e;
+            }
+            finishImage(input, feature, error, startTime);
+        }
+        else
+        {
+            batch.add(new PendingImage(input, startTime));
+            if (batch.size() >= batchSize)
+                flushBatch();
+        }
+    }
+    
+    /**
+     * Emits the features of a processed image and acks the input tuple. Must be called from the executor thread.
+     * @param input the input tuple
+     * @param feature the feature bundle, an empty array for the skipped images
+     * @param error the exception thrown during the extraction or {@code null}
+     * @param startTime the time when the tuple processing started
+     */
+    private void finishImage(Tuple input, byte[] feature, Exception error, long startTime)
+    {
+        @SuppressWarnings("unchecked")
+        List<String> names = (List<String>) input.getValue(0);
+        String image_url = input.getString(1);
+        byte[] image_data=input.getBinary(2);
+        String uuid=input.getString(3);
+        
+        if (error != null) {
+            if (error instanceof IOException)
+                log.error("Corrupted image: " + error.getMessage());
+            else if (error instanceof InstantiationException)
+                log.error("Lire instantiation error: " + error.getMessage());
+            else if (error instanceof IllegalAccessException)
+                log.error("Lire illegal access error: " + error.getMessage());
+            else
+                log.error("Feature extraction error: " + error);
             collector.fail(input);
-		}
-    	lireFeature.extract(image);
-    	byte[] feature=lireFeature.getByteArrayRepresentation();
-    	try {
-    		Long estimatedTime = System.nanoTime() - startTime;
-			monitor.MonitorTuple("ExtractFeaturesBolt", uuid,1, hostname, estimatedTime);
-		} catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-    	collector.emit(new Values(name,feature,image_data,uuid,image_url));
+            return;
+        }
+        if (feature.length == 0) {
+            log.info("Image " + image_url + " is too large or rejected, skipping");
+            collector.ack(input);
+            return;
+        }
+    	if (monitor != null) {
+    		try {
+    			Long estimatedTime = System.nanoTime() - startTime;
+    			monitor.MonitorTuple("ExtractFeaturesBolt", uuid,1, hostname, estimatedTime);
+    		} catch (SQLException e) {
+    			log.warn("Cannot record the monitoring data: " + e.getMessage());
+    		}
+    	}
+    	collector.emit(new Values(names,feature,image_data,uuid,image_url,input.getString(4)));
         collector.ack(input);
-    	 
+    }
+    
+    /**
+     * Extracts the features of all the buffered images in parallel and emits the results in the order
+     * of the input tuples. Must be called from the executor thread; it blocks the executor thread until
+     * all the images of the batch are processed.
+     */
+    private void flushBatch()
+    {
+        if (batch.isEmpty())
+            return;
+        List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>(batch.size());
+        for (PendingImage pending : batch)
+        {
+            final byte[] image_data = pending.input.getBinary(2);
+            final String image_hash = pending.input.getString(4);
+            tasks.add(new Callable<byte[]>() {
+                public byte[] call() throws Exception
+                {
+                    return computeFeatures(image_data, image_hash);
+                }
+            });
+        }
+        
+        List<Future<byte[]>> results = null;
+        try {
+            results = workerPool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (int i = 0; i < batch.size(); i++)
+        {
+            PendingImage pending = batch.get(i);
+            if (results == null)
+                collector.fail(pending.input);
+            else
+            {
+                byte[] feature = null;
+                Exception error = null;
+                try {
+                    feature = results.get(i).get();
+                } catch (ExecutionException e) {
+                    error = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    error = e;
+                }
+                finishImage(pending.input, feature, error, pending.startTime);
+            }
+        }
+        batch.clear();
+    }
+    
+    /**
+     * Obtains the feature bundle of an image either from the cache or by extracting the features.
+     * May be called from the worker threads.
+     * @param image_data the image data
+     * @param image_hash the content hash of the image data used as the cache key
+     * @return the feature bundle or an empty array when the image is too large or rejected by the filter
+     */
+    private byte[] computeFeatures(byte[] image_data, String image_hash) throws IOException, InstantiationException, IllegalAccessException
+    {
+        String cacheKey = image_hash;
+        byte[] feature = null;
+        if (featureCache != null) {
+            feature = featureCache.get(cacheKey);
+            if (feature != null)
+                cacheHitMetric.incr();
+            else
+                cacheMissMetric.incr();
+        }
+        if (feature == null) {
+            feature = extractFeatures(image_data);
+            if (featureCache != null)
+                featureCache.put(cacheKey, feature); //an empty array for the rejected images
+        }
+        return feature;
     }
 
+	/**
+	 * Decodes the image and extracts the features.
+	 * @param image_data the image data
+	 * @return the feature bundle or an empty array when the image is too large or rejected by the filter
+	 */
+	private byte[] extractFeatures(byte[] image_data) throws IOException, InstantiationException, IllegalAccessException
+	{
+	    BufferedImage image = decoder.decode(image_data);
+	    if (image == null)
+	        return new byte[0];
+	    return extractor.extract(image);
+	}
+	
+	/**
+	 * Creates the signature of the settings that influence the extracted features.
+	 */
+	private String getExtractionSignature()
+	{
+	    String ret = Arrays.toString(descriptors) + " dHash " + maxImageDimension + " " + maxImagePixels;
+	    if (imageFilter != null)
+	        ret += " " + imageFilter.getMinWidth() + "x" + imageFilter.getMinHeight() + " " + imageFilter.getMaxAspect();
+	    return ret;
+	}
+	
+	private static synchronized FeatureCache getSharedFeatureCache(int size, String file, String signature)
+	{
+	    if (sharedFeatureCache == null)
+	        sharedFeatureCache = new FeatureCache(size, (file == null) ? null : new File(file), signature);
+	    return sharedFeatureCache;
+	}
+
+	private boolean isTickTuple(Tuple input)
+	{
+	    return Constants.SYSTEM_COMPONENT_ID.equals(input.getSourceComponent())
+	            && Constants.SYSTEM_TICK_STREAM_ID.equals(input.getSourceStreamId());
+	}
+
 	@Override
 	public void cleanup() {
-		// TODO Auto-generated method stub
-		
+		if (workerPool != null)
+		    workerPool.shutdownNow();
+		if (featureCache != null)
+		    featureCache.flush();
 	}
 
 	@Override
 	public void declareOutputFields(OutputFieldsDeclarer declarer) {
-		declarer.declare(new Fields("name", "feature","image_data","uuid","image_url"));
+		declarer.declare(new Fields("names", "feature","image_data","uuid","image_url","image_hash"));
 		
 	}
 
 	@Override
 	public Map<String, Object> getComponentConfiguration() {
-		// TODO Auto-generated method stub
-		return null;
+		if (batchSize > 0) {
+		    //the tick tuples are used for flushing the incomplete batches
+		    Map<String, Object> conf = new HashMap<String, Object>();
+		    conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+		    return conf;
+		}
+		else
+		    return null;
+	}
+	
+	//===========================================================================================
+	
+	/**
+	 * An image waiting in the batch.
+	 */
+	private static class PendingImage
+	{
+	    public Tuple input;
+	    public long startTime;
+	    
+	    public PendingImage(Tuple input, long startTime)
+	    {
+	        this.input = input;
+	        this.startTime = startTime;
+	    }
 	}
 
 }
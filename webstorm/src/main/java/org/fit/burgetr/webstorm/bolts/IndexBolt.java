@@ -1,21 +1,19 @@
 package org.fit.burgetr.webstorm.bolts;
 
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
-import javax.imageio.ImageIO;
-
 import net.semanticmetadata.lire.DocumentBuilder;
 import net.semanticmetadata.lire.ImageSearchHits;
 import net.semanticmetadata.lire.ImageSearcher;
@@ -25,21 +23,24 @@ import net.semanticmetadata.lire.utils.LuceneUtils;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.document.FloatField;
-import org.apache.lucene.document.IntField;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.search.*;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import backtype.storm.Config;
+import backtype.storm.Constants;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.IRichBolt;
@@ -52,7 +53,9 @@ import cz.vutbr.fit.monitoring.Monitoring;
 
 /**
  * A bolt that indexes images
- * Accepts: (name, feature,image_data,uuid,image_url)
+ * Accepts: (names, feature,image_data,uuid,image_url,image_hash)
+ * where names is the list of all the names related to the image. Each task keeps its own index,
+ * the tuples should be grouped by image_hash so that all the copies of an image reach the same task.
  * 
  * @author ikouril
  */
@@ -63,10 +66,14 @@ public class IndexBolt implements IRichBolt{
     Directory directory=null;
     IndexWriter iw=null;
     IndexReader ir=null;
+    /** Near-real-time searchers opened from the index writer */
+    private SearcherManager searcherManager=null;
+    /** The searcher acquired for processing the current tuple */
+    private IndexSearcher indexSearcher=null;
     private String webstormId;
     private Monitoring monitor;
     private String hostname;
-    //private OutputCollector collector;
+    private OutputCollector collector;
     private float threshold;
     private int lastMinute;
     private int history;
@@ -74,6 +81,24 @@ public class IndexBolt implements IRichBolt{
     private int updateInterval;
     private boolean ram;
     private int best;
+    private int nearDuplicateDistance=-1;
+    private int nearDuplicateEntries=0;
+    private transient NearDuplicateIndex nearDuplicates;
+    private int commitDocs=0;
+    private long commitMillis=0;
+    private int syncTuples=1;
+    private transient IndexTranslog translog;
+    private transient List<Tuple> pendingAcks;
+    private transient int docsSinceCommit;
+    private transient long lastCommit;
+    /** The weight history of the indexed documents */
+    private transient WeightStore weights;
+    /** The file name prefix of the weights saved when the index is committed, {@code null} when not persisted */
+    private transient File weightsFile;
+    /** The sequence number of the last image logged to the translog */
+    private transient long seq;
+    /** The commit user data key of the sequence number of the last committed image */
+    private static final String COMMIT_SEQ="seq";
     private static Integer instances=0;
 
     /**
@@ -118,6 +143,33 @@ public class IndexBolt implements IRichBolt{
     	this.best=best;
     }
 
+    /**
+     * Enables the near-duplicate detection using the perceptual image hashes. A near-duplicate of an indexed
+     * image is not indexed and searched; the weight of the existing document is increased instead
+     * and the names are added to it.
+     * @param maxDistance the maximal Hamming distance of the hashes of near-duplicate images (0 to 15), -1 for disabling the detection
+     * @param maxEntries the maximal number of images remembered
+     */
+    public void setNearDuplicates(int maxDistance, int maxEntries){
+    	nearDuplicateDistance=maxDistance;
+    	nearDuplicateEntries=maxEntries;
+    }
+
+    /**
+     * Enables the group commits. The index is committed after the given number of images or time; the images
+     * indexed since the last commit are kept in a local translog that is replayed when the bolt is restarted
+     * within the same deployment. The tuples are acked once the translog is synced to the disk or the index
+     * is committed. Without the group commits, the index is committed after each image. Not used for the RAM index.
+     * @param maxDocs the maximal number of images indexed between two commits
+     * @param maxMillis the maximal time between two commits in milliseconds
+     * @param syncTuples the number of tuples logged before the translog is synced, the translog is synced every second as well
+     */
+    public void setCommitPolicy(int maxDocs, long maxMillis, int syncTuples){
+    	commitDocs=maxDocs;
+    	commitMillis=maxMillis;
+    	this.syncTuples=syncTuples;
+    }
+
 	@SuppressWarnings("rawtypes")
 	@Override
 	public void prepare(Map stormConf, TopologyContext context,
@@ -129,7 +181,9 @@ public class IndexBolt implements IRichBolt{
 			nodeId=++instances;
 		}
 		
-		//this.collector=collector;
+		this.collector=collector;
+		if (nearDuplicateDistance>=0)
+			nearDuplicates=new NearDuplicateIndex(nearDuplicateDistance, nearDuplicateEntries);
 		try{
 			hostname=InetAddress.getLocalHost().getHostName();
 		}
@@ -137,6 +191,9 @@ public class IndexBolt implements IRichBolt{
 			hostname="-unknown-";
 		}
 		
+		weights=new WeightStore(history);
+		boolean replay=false;
+		
 		if (conf==null){
 			conf = new IndexWriterConfig(LuceneUtils.LUCENE_VERSION,
 	                new WhitespaceAnalyzer(LuceneUtils.LUCENE_VERSION));
@@ -151,11 +208,22 @@ public class IndexBolt implements IRichBolt{
 						String path=System.getProperty("user.home")+"/index/"+String.valueOf(context.getThisTaskIndex())+"/";
 						File f=new File(path);
 						f.mkdirs();
-						for(File file: f.listFiles()) file.delete(); // Clen directory from files of old schedules because of stucked locks
+						if (commitDocs>0){
+							translog=new IndexTranslog(new File(System.getProperty("user.home")+"/index/translog-"+String.valueOf(context.getThisTaskIndex())), webstormId);
+							weightsFile=new File(System.getProperty("user.home")+"/index/weights-"+String.valueOf(context.getThisTaskIndex()));
+						}
+						replay=(translog!=null && translog.isReplayable());
+						if (replay)
+							new File(f, "write.lock").delete(); // Restarted within the same deployment, keep the index
+						else
+							for(File file: f.listFiles()) file.delete(); // Clen directory from files of old schedules because of stucked locks
 						directory=FSDirectory.open(f);
 					} catch (IOException e) {
+						log.error("Cannot open the index directory, using a memory index: " + e.getMessage());
 						directory=new RAMDirectory();
-						e.printStackTrace();
+						translog=null;
+						weightsFile=null;
+						replay=false;
 					}
 				}
 			}
@@ -163,38 +231,257 @@ public class IndexBolt implements IRichBolt{
 		        try {
 					iw = new IndexWriter(directory, conf);
 				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					throw new RuntimeException("Cannot open the index writer: " + e.getMessage(), e);
 				}
 			}
+			seq=0;
+			long committedSeq=0;
 			try {
-				iw.commit();
-			} catch (IOException e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
+				if (replay){
+					//the kept index is only usable together with the weights saved for the same commit
+					replay=false;
+					String data=iw.getCommitData().get(COMMIT_SEQ);
+					if (data!=null && data.matches("[0-9]+")){
+						committedSeq=Long.parseLong(data);
+						try {
+							replay=weights.load(weightsFile(committedSeq), webstormId);
+						} catch (IOException e) {
+							log.error("Cannot load the weights: " + e.getMessage());
+						}
+					}
+					if (replay)
+						seq=committedSeq;
+					else{
+						log.warn("No weights saved for the committed index, starting with an empty index");
+						iw.deleteAll();
+						weights.clear();
+					}
+				}
+				commitIndex();
+				searcherManager=new SearcherManager(iw, true, new SearcherFactory());
+				if (replay && nearDuplicates!=null)
+					loadNearDuplicates();
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot open the index: " + e.getMessage(), e);
 			}
+			if (translog!=null)
+				replayTranslog(replay, committedSeq);
 			
 	}
+	
+	/**
+	 * Commits the index together with the sequence number of the last logged image and saves the weights
+	 * that correspond to the committed index. The weights are saved before the commit and the weights of
+	 * the older commits are deleted after it, so that the weights of the last commit are always available.
+	 * @throws IOException
+	 */
+	private void commitIndex() throws IOException{
+		if (weightsFile!=null){
+			weights.save(weightsFile(seq), webstormId);
+			Map<String, String> data=new HashMap<String, String>();
+			data.put(COMMIT_SEQ, String.valueOf(seq));
+			iw.setCommitData(data);
+		}
+		iw.commit();
+		if (weightsFile!=null){
+			File current=weightsFile(seq);
+			File[] files=weightsFile.getParentFile().listFiles();
+			for (int i=0; files!=null && i<files.length; i++){
+				if (files[i].getName().startsWith(weightsFile.getName()+".") && !files[i].equals(current))
+					files[i].delete();
+			}
+		}
+	}
+	
+	/**
+	 * Obtains the file of the weights saved when the index was committed.
+	 * @param commitSeq the sequence number of the last image contained in the commit
+	 */
+	private File weightsFile(long commitSeq){
+		return new File(weightsFile.getPath()+"."+String.valueOf(commitSeq));
+	}
+	
+	/**
+	 * Rebuilds the near-duplicate index from the perceptual hashes stored in the kept index.
+	 * @throws IOException
+	 */
+	private void loadNearDuplicates() throws IOException{
+		acquireReader();
+		try {
+			Bits liveDocs=MultiFields.getLiveDocs(ir);
+			Set<String> fields=new HashSet<String>(Arrays.asList(FeatureExtractor.FIELD_NAME_DHASH, "myid"));
+			for (int i=0; i<ir.maxDoc(); i++){
+				if (liveDocs!=null && !liveDocs.get(i))
+					continue;
+				Document d=ir.document(i, fields);
+				BytesRef dhash=d.getBinaryValue(FeatureExtractor.FIELD_NAME_DHASH);
+				String myid=d.get("myid");
+				if (dhash!=null && dhash.length==8 && myid!=null){
+					long hash=PerceptualHash.fromBytes(Arrays.copyOfRange(dhash.bytes, dhash.offset, dhash.offset+dhash.length));
+					if (PerceptualHash.isDistinctive(hash))
+						nearDuplicates.add(hash, myid);
+				}
+			}
+		} finally {
+			releaseReader();
+		}
+		log.info("Loaded " + nearDuplicates.size() + " perceptual hashes from the index");
+	}
+	
+	/**
+	 * Indexes the images logged in the translog since the last commit, commits the index and starts a new translog.
+	 * The logged images already contained in the committed index are skipped.
+	 * @param replay {@code false} when the logged images should be dropped because the committed index has not been kept
+	 * @param committedSeq the sequence number of the last image contained in the committed index
+	 */
+	private void replayTranslog(boolean replay, long committedSeq){
+		try {
+			if (replay){
+				List<IndexTranslog.Entry> entries=translog.readEntries();
+				int cnt=0;
+				for (IndexTranslog.Entry entry : entries){
+					if (entry.seq>committedSeq){
+						seq=entry.seq;
+						if (indexImage(entry.names, FeatureBundle.decode(entry.feature), entry.imageData, entry.uuid, entry.imageUrl))
+							cnt++;
+					}
+				}
+				commitIndex();
+				log.info("Replayed " + cnt + " of " + entries.size() + " images from the translog");
+			}
+			translog.reset();
+		} catch (IOException e) {
+			log.error("Cannot use the translog: " + e.getMessage());
+			translog=null;
+		}
+		pendingAcks=new ArrayList<Tuple>();
+		docsSinceCommit=0;
+		lastCommit=System.currentTimeMillis();
+	}
+	
+	/**
+	 * Syncs the translog and acks the logged tuples.
+	 */
+	private void syncTranslog(){
+		if (pendingAcks.isEmpty())
+			return;
+		try {
+			translog.sync();
+			for (Tuple t : pendingAcks)
+				collector.ack(t);
+		} catch (IOException e) {
+			log.error("Cannot sync the translog: " + e.getMessage());
+			for (Tuple t : pendingAcks)
+				collector.fail(t);
+		}
+		pendingAcks.clear();
+	}
+	
+	/**
+	 * Commits the index when required by the commit policy, acks the pending tuples and starts a new translog.
+	 */
+	private void maybeCommit(){
+		long now=System.currentTimeMillis();
+		if (docsSinceCommit>=commitDocs || (docsSinceCommit>0 && now-lastCommit>=commitMillis)){
+			try {
+				commitIndex();
+				for (Tuple t : pendingAcks)
+					collector.ack(t);
+				pendingAcks.clear();
+				translog.reset();
+			} catch (IOException e) {
+				log.error("Cannot commit the index: " + e.getMessage());
+				syncTranslog();
+			}
+			docsSinceCommit=0;
+			lastCommit=now;
+		}
+	}
+	
+	private boolean isTickTuple(Tuple input){
+		return Constants.SYSTEM_COMPONENT_ID.equals(input.getSourceComponent())
+				&& Constants.SYSTEM_TICK_STREAM_ID.equals(input.getSourceStreamId());
+	}
 
-	@SuppressWarnings("deprecation")
 	@Override
 	public void execute(Tuple input)
 	{
-		long startTime = System.nanoTime();
+		if (isTickTuple(input)){
+			if (translog!=null){
+				syncTranslog();
+				maybeCommit();
+			}
+			return;
+		}
 		
-		String name = input.getString(0);
-        byte[] feature = input.getBinary(1);
+		@SuppressWarnings("unchecked")
+		List<String> names = (List<String>) input.getValue(0);
+		byte[] feature = input.getBinary(1);
+        Map<String, byte[]> descriptors;
+        try {
+            descriptors = FeatureBundle.decode(feature);
+        } catch (IOException e) {
+            log.error("Invalid feature bundle: " + e.getMessage());
+            collector.fail(input);
+            return;
+        }
         String image_url=input.getString(4);
         String uuid=input.getString(3);
-        
         byte[] imageData=input.getBinary(2);
-        BufferedImage image=null;
-		try {
-			image = ImageIO.read(new ByteArrayInputStream(imageData));
-		} catch (IOException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
-		}
+        
+        //log the image before indexing
+        if (translog!=null){
+        	try {
+        		translog.append(new IndexTranslog.Entry(seq+1, names, feature, imageData, uuid, image_url));
+        		seq++;
+        	} catch (IOException e) {
+        		log.error("Cannot write the translog: " + e.getMessage());
+        		collector.fail(input);
+        		return;
+        	}
+        }
+        
+        if (!indexImage(names, descriptors, imageData, uuid, image_url)){
+        	//the image is indexed again when the spout replays the tuple
+        	collector.fail(input);
+        	return;
+        }
+        
+        if (translog==null){
+        	//commit each image
+        	try {
+        		commitIndex();
+        		collector.ack(input);
+        	} catch (IOException e) {
+        		log.error("Cannot commit the index: " + e.getMessage());
+        		collector.fail(input);
+        	}
+        }
+        else{
+        	//the tuple is acked when the translog is synced or the index is committed
+        	pendingAcks.add(input);
+        	docsSinceCommit++;
+        	if (pendingAcks.size()>=syncTuples)
+        		syncTranslog();
+        	maybeCommit();
+        }
+	}
+	
+	/**
+	 * Indexes a single image: updates the weights of the similar images and adds the image to the index.
+	 * The changes are not committed.
+	 * @param names the names related to the image
+	 * @param descriptors the image descriptors
+	 * @param imageData the image data
+	 * @param uuid the tuple uuid
+	 * @param image_url the image url
+	 * @return {@code true} when the image has been indexed or merged with an indexed document
+	 */
+	@SuppressWarnings("deprecation")
+	private boolean indexImage(List<String> names, Map<String, byte[]> descriptors, byte[] imageData, String uuid, String image_url)
+	{
+		long startTime = System.nanoTime();
+		
         DateTime now = DateTime.now();
         String dateString=String.valueOf(now.getYear())+"-"+String.valueOf(now.getMonthOfYear())+"-"+String.valueOf(now.getDayOfMonth())+"-"+String.valueOf(now.getHourOfDay())+"-"+String.valueOf(now.getMinuteOfHour())+"-"+String.valueOf(now.getSecondOfMinute())+"-"+String.valueOf(now.getMillisOfSecond());
         log.info("DateTime:"+dateString+", Indexing image from url: " + image_url+" (originating from document with uuid: "+uuid+")");
@@ -202,345 +489,267 @@ public class IndexBolt implements IRichBolt{
         boolean updateWeights=(actualMinute!=lastMinute) && ((actualMinute%updateInterval)==0);
         lastMinute=actualMinute;
         
-        try {
-			ir = IndexReader.open(directory);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+        acquireReader();
         
         if (updateWeights){
-        	for (int i=0; i<ir.maxDoc(); i++) {
-
-        	    Document doc = null;
-				try {
-					doc = ir.document(i);
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-				int length=0;
-				IndexableField lengthField=doc.getField("length");
-				if (lengthField !=null)
-					length=lengthField.numericValue().intValue();
-				
-				String logString="";
-				
-				for (int counter=length;counter>0;counter--){
-					String fieldName=String.valueOf(counter-1);
-					/*
-					for (IndexableField ifield:doc.getFields()){
-						log.info("Field name: "+ifield.name());
-					}
-					log.info("Target field name: "+fieldName);
-					*/
-					IndexableField field=doc.getField(fieldName);
-					
-					
-					logString=" "+field.numericValue().floatValue()+logString;
-					doc.removeField(fieldName);
-					if (counter<history)
-						doc.add(new FloatField(String.valueOf(counter),field.numericValue().floatValue(),FloatField.TYPE_STORED));
-				}
-				doc.add(new FloatField("0",0.0F,FloatField.TYPE_STORED));
-				if (length<(history-1))
-					length++;
-				doc.removeField("length");
-				doc.add(new IntField("length", length, IntField.TYPE_STORED));
-				
-				
-				String myid=doc.getValues("myid")[0];
-            	Term t=new Term("myid",myid);
-            	
-            	try {
-					iw.updateDocument(t, doc);
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-
-            	log.info("Updating document "+myid+": "+logString);
-				
-        	}
-        	try {
-        		ir.close();
-				iw.commit();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+        	//start a new time window, the indexed documents are not touched
+        	weights.rollover();
+        	log.info("Starting a new weight window for " + weights.size() + " documents");
         }
         
-        try {
-			ir = IndexReader.open(directory);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+        //merge near-duplicates with the existing documents without searching
+        //blank and flat images are never merged
+        byte[] dhash=descriptors.get(FeatureExtractor.FIELD_NAME_DHASH);
+        if (dhash!=null && !PerceptualHash.isDistinctive(PerceptualHash.fromBytes(dhash)))
+        	dhash=null;
+        if (nearDuplicates!=null && dhash!=null && mergeNearDuplicate(PerceptualHash.fromBytes(dhash), names, image_url)){
+        	releaseReader();
+        	monitorTuple(uuid, startTime);
+        	return true;
+        }
         
-        //compare threshold with 10 best matches
+        //compare threshold with 10 best matches, the search uses the received CEDD feature directly
         ImageSearcher searcher = ImageSearcherFactory.createCEDDImageSearcher(10);
         ImageSearchHits hits=null;
-        try {
-			hits = searcher.search(image, ir);
-		} catch (IOException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
-
-		}
+        byte[] cedd=descriptors.get(DocumentBuilder.FIELD_NAME_CEDD);
+        if (cedd!=null){
+        	Document query=new Document();
+        	query.add(new Field(DocumentBuilder.FIELD_NAME_CEDD, cedd));
+        	try {
+        		hits = searcher.search(query, ir);
+        	} catch (IOException e) {
+        		log.error("Similarity search failed for " + image_url + ": " + e.getMessage());
+        		releaseReader();
+        		return false;
+        	}
+        }
+        else
+        	log.warn("No CEDD feature received for " + image_url + ", skipping the similarity search");
         
         float totalScore=0.0F;
         int overThreshold=0;
         
-        for (int i = 0; i < hits.length(); i++) {
+        for (int i = 0; hits != null && i < hits.length(); i++) {
             
             if (hits.score(i)>threshold){
-            	String fileName = hits.doc(i).getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)[0];
+            	String fileName = Arrays.toString(hits.doc(i).getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER));
                 log.info("Document similarity with "+fileName+" is "+hits.score(i));
-            	IndexableField f=hits.doc(i).getField("0");
-            	
-            	float weight=0.0F;
-            	if (f!=null){
-            		weight=f.numericValue().floatValue();
-            	}
-            	else{
-            		hits.doc(i).add(new IntField("length", 1, IntField.TYPE_STORED));
-            	}
             	float actualScore=hits.score(i);
             	totalScore+=actualScore;
             	overThreshold+=1;
-            	weight+=actualScore;
-            	hits.doc(i).removeField("0");
-            	hits.doc(i).add(new FloatField("0",weight, FloatField.TYPE_STORED));
-            	String myid=hits.doc(i).getValues("myid")[0];
-            	Term t=new Term("myid",myid);
-            	
-            	try {
-					iw.updateDocument(t, hits.doc(i));
-					iw.commit();
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-
+            	weights.addWeight(hits.doc(i).getValues("myid")[0], actualScore);
             }
         }
         
         
         
         Document document = new Document();
-        document.add(new Field(DocumentBuilder.FIELD_NAME_CEDD, feature));
-        document.add(new Field(DocumentBuilder.FIELD_NAME_IDENTIFIER, name, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        //each descriptor is stored under its own field name, CEDD under DocumentBuilder.FIELD_NAME_CEDD
+        for (Map.Entry<String, byte[]> descriptor : descriptors.entrySet())
+            document.add(new Field(descriptor.getKey(), descriptor.getValue()));
+        for (String name : names)
+        	document.add(new Field(DocumentBuilder.FIELD_NAME_IDENTIFIER, name, Field.Store.YES, Field.Index.NOT_ANALYZED));
         document.add(new Field("image_url",image_url,Field.Store.YES,Field.Index.NOT_ANALYZED));
         document.add(new Field("image", imageData));
-        document.add(new Field("myid",UUID.randomUUID().toString(), Field.Store.YES, Field.Index.NOT_ANALYZED));
-        
-        
-        if (overThreshold>0){
-        	float averageScore=totalScore/overThreshold;
-        	document.add(new IntField("length", 1, IntField.TYPE_STORED));
-        	document.add(new FloatField("0",averageScore, FloatField.TYPE_STORED));
-        }
-        
-        
+        String newId=UUID.randomUUID().toString();
+        document.add(new Field("myid",newId, Field.Store.YES, Field.Index.NOT_ANALYZED));
         
         try {
 			iw.addDocument(document);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			log.error("Cannot index the image " + image_url + ": " + e.getMessage());
+			releaseReader();
+			return false;
 		}
-        try {
-        	ir.close();
-			iw.commit();
-		} catch (IOException e2) {
-			// TODO Auto-generated catch block
-			e2.printStackTrace();
-		}
-
-        try {
-			ir = IndexReader.open(directory);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-            
+        
+        if (nearDuplicates!=null && dhash!=null)
+        	nearDuplicates.add(PerceptualHash.fromBytes(dhash), newId);
+        weights.add(newId);
+        if (overThreshold>0){
+        	float averageScore=totalScore/overThreshold;
+        	weights.addWeight(newId, averageScore);
+        }
+        refreshReader();
             
         int total=ir.numDocs();
         if (total>maxDocuments){
         	int documentsToDelete=total-maxDocuments;
         	
-        	Query q=new ImagesToDeleteQuery(new MatchAllDocsQuery());
-        	IndexSearcher s = new IndexSearcher(ir);
-            TopScoreDocCollector collector = TopScoreDocCollector.create(documentsToDelete, true);
-            try {
-				s.search(q, collector);
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-            
-            ScoreDoc[] h = collector.topDocs().scoreDocs;
-            
-            for (ScoreDoc toDelete:h){
-            	IndexableField f=null;
-            	try {
-					f=ir.document(toDelete.doc).getField("myid");
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-            	String myid=f.stringValue();
+        	//delete the documents with the lowest scores
+        	List<String> ranked=weights.rank();
+        	for (int i=ranked.size()-1; i>=0 && documentsToDelete>0; i--, documentsToDelete--){
+        		String myid=ranked.get(i);
+        		float score=weights.getScore(myid);
             	Term t=new Term("myid",myid);
             	try {
 					iw.deleteDocuments(t);
+					weights.remove(myid);
+					if (nearDuplicates!=null)
+						nearDuplicates.remove(myid);
+					log.info("Deleting document: "+myid+" with score: "+score);
 				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					//the document stays indexed, it is deleted with the next image
+					log.error("Cannot delete the document " + myid + ": " + e.getMessage());
 				}
-            	log.info("Deleting document: "+myid+" with score: "+getScore(myid));
             	
             }
-            try {
-				iw.commit();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+            refreshReader();
         	
         }
-        List<Score> allScores=computeScores();  
+        List<String> ranked=weights.rank();
         
-        log.info("Total number of documents currently indexed: "+String.valueOf(ir.maxDoc()));
+        log.info("Total number of documents currently indexed: "+String.valueOf(ir.numDocs()));
         
-        for (int i=0;i<allScores.size()&&i<best;i++){
-        	Document d=null;
-        	try {
-    			d = ir.document(allScores.get(i).getDocId());
-    		} catch (IOException e) {
-    			// TODO Auto-generated catch block
-    			e.printStackTrace();
-    		}
+        for (int i=0;i<ranked.size()&&i<best;i++){
+        	Document d=findDocument(ranked.get(i));
     		if (d!=null){
-    			IndexableField nameField=d.getField(DocumentBuilder.FIELD_NAME_IDENTIFIER);
-    			String docName=nameField.stringValue();
+    			List<String> docNames=new ArrayList<String>(Arrays.asList(d.getValues(DocumentBuilder.FIELD_NAME_IDENTIFIER)));
+    			for (String name : weights.getNames(ranked.get(i))){
+    				if (!docNames.contains(name))
+    					docNames.add(name);
+    			}
+    			String docName=docNames.toString();
     			IndexableField imageUrlField=d.getField("image_url");
     			String imageURL=imageUrlField.stringValue();
-    			log.info(String.valueOf(i+1)+". best image -> name: "+docName+", score: "+String.valueOf(allScores.get(i).getScore())+", image url:"+imageURL);
+    			log.info(String.valueOf(i+1)+". best image -> name: "+docName+", score: "+String.valueOf(weights.getScore(ranked.get(i)))+", image url:"+imageURL);
     		}
         	
         }
 
-        try {
-			ir.close();
-		} catch (IOException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
-		}
-
-        try {
-        	Long estimatedTime = System.nanoTime() - startTime;
+        releaseReader();
+        monitorTuple(uuid, startTime);
+        return true;
+	}
+	
+	/**
+	 * Records the processing time of a tuple in the monitoring database.
+	 * @param uuid the tuple uuid
+	 * @param startTime the time when the tuple processing started
+	 */
+	private void monitorTuple(String uuid, long startTime){
+		try {
+			Long estimatedTime = System.nanoTime() - startTime;
 			monitor.MonitorTuple("IndexBolt", uuid,1, hostname, estimatedTime);
 		} catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			log.warn("Cannot record the monitoring data: " + e.getMessage());
 		}
 	}
 	
 	/**
-     * Prints scores of all documents
-	 * @return 
-     */
-	private List<Score> computeScores(){
-		List<Score> scores=new ArrayList<Score>();
-		for (int i=0; i<ir.maxDoc(); i++) {
-			float score=getScore(i);
-			scores.add(new Score(score,i));
+	 * Acquires the current near-real-time searcher and its reader for processing a tuple.
+	 */
+	private void acquireReader(){
+		try {
+			searcherManager.maybeRefresh();
+		} catch (IOException e) {
+			log.error("Cannot refresh the searcher, using the previous one: " + e.getMessage());
 		}
-		Collections.sort(scores, new Comparator<Score>(){
-			@Override
-			public int compare(Score o1, Score o2) {
-				
-				return o2.getScore().compareTo(o1.getScore());
+		indexSearcher=searcherManager.acquire();
+		ir=indexSearcher.getIndexReader();
+	}
+	
+	/**
+	 * Releases the acquired searcher.
+	 */
+	private void releaseReader(){
+		if (indexSearcher!=null){
+			try {
+				searcherManager.release(indexSearcher);
+			} catch (IOException e) {
+				log.error("Cannot release the searcher: " + e.getMessage());
 			}
-			
-		});
-		return scores;
+			indexSearcher=null;
+			ir=null;
+		}
 	}
 	
 	/**
-     * Computes score of given document
-     * @param docId - integer number of document
-     * @return Score of document 
-     */
-	private float getScore(int docNumber){
-		Document d = null;
+	 * Replaces the acquired searcher with a new one that reflects the recent changes made by the index writer.
+	 * Only the changed segments are reopened.
+	 */
+	private void refreshReader(){
+		releaseReader();
 		try {
-			d = ir.document(docNumber);
+			searcherManager.maybeRefreshBlocking();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			log.error("Cannot refresh the searcher, using the previous one: " + e.getMessage());
 		}
-		if (d!=null){
-			IndexableField lengthField=d.getField("length");
-			int length=0;
-			if (lengthField !=null)
-				length=lengthField.numericValue().intValue();
-		    
-			float score=0.0F;
-			
-			for (int i=0;i<length;i++){
-				String fieldName=String.valueOf(i);
-				IndexableField field=d.getField(fieldName);
-				score+=(length-i)*field.numericValue().floatValue();
-			}
-		    
-		    return score;
+		indexSearcher=searcherManager.acquire();
+		ir=indexSearcher.getIndexReader();
+	}
+	
+	/**
+	 * Finds an indexed near-duplicate of an image and merges the image with it: the weight of the document
+	 * is increased as for a perfect match and the names are added to the document. The names are kept
+	 * in the weight store so that the indexed document (including the image data) is not rewritten.
+	 * @param hash the perceptual hash of the image
+	 * @param names the names related to the image
+	 * @param image_url the image url
+	 * @return {@code true} when the image has been merged with an existing document
+	 */
+	private boolean mergeNearDuplicate(long hash, List<String> names, String image_url){
+		String dupId=nearDuplicates.find(hash);
+		if (dupId==null)
+			return false;
+		if (!weights.contains(dupId)){
+			//not indexed anymore
+			nearDuplicates.remove(dupId);
+			return false;
 		}
-			
 		
-		return -1.0F;
+		weights.addWeight(dupId, 1.0F);
+		weights.addNames(dupId, names);
+		log.info("Image " + image_url + " is a near-duplicate of document " + dupId + ", merged");
+		return true;
 	}
 	
 	/**
-     * Computes score of given document
-     * @param docId - String id of indexed document
-     * @return Score of document 
-     */
-	private float getScore(String docId){
-		
-		IndexSearcher is=new IndexSearcher(ir);
-		TermQuery q=new TermQuery(new Term("myid",docId));
-		TopDocs sc = null;
+	 * Finds an indexed document by its id.
+	 * @param docId the document id
+	 * @return the document or {@code null} when not indexed
+	 */
+	private Document findDocument(String docId){
 		try {
-			sc = is.search(q, 1);
+			TopDocs sc=indexSearcher.search(new TermQuery(new Term("myid",docId)), 1);
+			if (sc.totalHits>0)
+				return ir.document(sc.scoreDocs[0].doc);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			log.error("Cannot read the document " + docId + ": " + e.getMessage());
 		}
-		if (sc==null || sc.totalHits==0){
-			return -1.0F;
-		}
-		return getScore(sc.scoreDocs[0].doc);
-		
+		return null;
 	}
 
 	@Override
 	public void cleanup() {
-		// TODO Auto-generated method stub
-		
+		try {
+			if (searcherManager!=null)
+				searcherManager.close();
+			if (iw!=null)
+				commitIndex();
+			if (translog!=null){
+				translog.reset();
+				translog.close();
+			}
+		} catch (IOException e) {
+			log.error("Cannot commit the index on shutdown: " + e.getMessage());
+		}
 	}
 
 	@Override
 	public void declareOutputFields(OutputFieldsDeclarer declarer) {
-		// TODO Auto-generated method stub
-		
+		//the indexer emits no tuples
 	}
 
 	@Override
 	public Map<String, Object> getComponentConfiguration() {
-		// TODO Auto-generated method stub
-		return null;
+		if (commitDocs>0){
+			//the tick tuples are used for syncing the translog and the time based commits
+			Map<String, Object> conf = new HashMap<String, Object>();
+			conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+			return conf;
+		}
+		else
+			return null;
 	}
 
 
@@ -13,6 +13,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -26,7 +27,8 @@ import backtype.storm.tuple.Tuple;
 
 /**
  * A bolt that receives the name - keyword relationships and builds statistics.
- * Accepts: (name, keyword, base_url)
+ * Accepts: (name, keyword, base_url) or the batched (name_keywords, base_url) where name_keywords
+ * maps the names to the lists of keywords.
  * 
  * @author burgetr
  */
@@ -62,12 +64,20 @@ public class NKStoreBolt implements IRichBolt
 
     public void execute(Tuple input)
     {
-        String name = input.getString(0);
-        String keyword = input.getString(1);
-
         try
         {
-            storeOccurence(name, keyword);
+            if (input.getFields().contains("name_keywords"))
+            {
+                @SuppressWarnings("unchecked")
+                Map<String, List<String>> batch = (Map<String, List<String>>) input.getValueByField("name_keywords");
+                storeOccurences(batch);
+            }
+            else
+            {
+                String name = input.getString(0);
+                String keyword = input.getString(1);
+                storeOccurence(name, keyword);
+            }
             collector.ack(input);
         }
         catch (SQLException e)
@@ -124,4 +134,24 @@ public class NKStoreBolt implements IRichBolt
         log.debug("Stored " + name + ":" + keyword);
     }
     
+    private void storeOccurences(Map<String, List<String>> batch) throws SQLException
+    {
+        Timestamp now = new Timestamp((new Date()).getTime());
+        int count = 0;
+        for (Map.Entry<String, List<String>> entry : batch.entrySet())
+        {
+            for (String keyword : entry.getValue())
+            {
+                insert.setLong(1, nextid++);
+                insert.setTimestamp(2, now);
+                insert.setString(3, entry.getKey());
+                insert.setString(4, keyword);
+                insert.addBatch();
+                count++;
+            }
+        }
+        insert.executeBatch();
+        log.debug("Stored " + count + " occurences for " + batch.size() + " names");
+    }
+    
 }
@@ -12,6 +12,7 @@ import java.util.UUID;
 import backtype.storm.Config;
 import backtype.storm.LocalCluster;
 import backtype.storm.topology.TopologyBuilder;
+import backtype.storm.tuple.Fields;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.core.util.StatusPrinter;
 
@@ -21,6 +22,8 @@ import org.fit.burgetr.webstorm.bolts.ExtractFeaturesBolt;
 import org.fit.burgetr.webstorm.bolts.FeedReaderBolt;
 import org.fit.burgetr.webstorm.bolts.IndexBolt;
 import org.fit.burgetr.webstorm.spouts.FeedURLSpout;
+import org.fit.burgetr.webstorm.util.DomPruner;
+import org.fit.burgetr.webstorm.util.ImageFilter;
 import org.mortbay.log.Log;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,9 +51,23 @@ public class RssMonitorTopology
         FeedURLSpout urlSpout = new FeedURLSpout("http://www.fit.vutbr.cz/~burgetr/public/rss.txt",uuid);
         FeedReaderBolt reader = new FeedReaderBolt(uuid);
         DownloaderBolt downloader = new DownloaderBolt(uuid);
+        downloader.setImageFilter(new ImageFilter());
         AnalyzerBolt analyzer = new AnalyzerBolt("kw","img",uuid);
+        analyzer.setBatchKeywords(true);
+        analyzer.setAnalysisTimeout(20000, true);
+        analyzer.setDomPruner(new DomPruner(false));
+        analyzer.setNamePrefilter(true);
+        analyzer.setSiteTemplates(3);
+        analyzer.setNameCacheSize(50000);
+        analyzer.setIncrementalAnalysis(10000);
+        analyzer.setTopKeywords(10);
         ExtractFeaturesBolt extractor = new ExtractFeaturesBolt(uuid);
+        extractor.setImageFilter(new ImageFilter());
+        extractor.setFeatureCache(100000, null);
+        extractor.setParallelExtraction(16, -1);
         IndexBolt indexer=new IndexBolt(uuid);
+        indexer.setNearDuplicates(4, 10000);
+        indexer.setCommitPolicy(100, 5000, 8);
         //NKStoreBolt nkstore = new NKStoreBolt();
         
         //create the topology
@@ -60,12 +77,14 @@ public class RssMonitorTopology
         builder.setBolt("reader", reader).shuffleGrouping("url_spout");
         builder.setBolt("downloader", downloader, 1).shuffleGrouping("reader");
         builder.setBolt("analyzer", analyzer, 1).shuffleGrouping("downloader");
-        builder.setBolt("extractor", extractor,1).globalGrouping("analyzer", "img");
-        builder.setBolt("indexer", indexer,1).shuffleGrouping("extractor");
+        builder.setBolt("extractor", extractor,1).fieldsGrouping("analyzer", "img", new Fields("image_hash"));
+        builder.setBolt("indexer", indexer,1).fieldsGrouping("extractor", new Fields("image_hash"));
         //builder.setBolt("nkstore", nkstore, 1).globalGrouping("analyzer", "kw");
 
         Config conf = new Config();
         conf.setDebug(true);
+        //a page may spend the analysis time limit and wait for the pages before it in the analyzer
+        conf.setMessageTimeoutSecs(120);
 
         final LocalCluster cluster = new LocalCluster();
         
@@ -15,6 +15,7 @@ import java.util.Date;
 import backtype.storm.Config;
 import backtype.storm.LocalCluster;
 import backtype.storm.topology.TopologyBuilder;
+import backtype.storm.tuple.Fields;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.core.util.StatusPrinter;
 import backtype.storm.StormSubmitter;
@@ -28,6 +29,8 @@ import org.fit.burgetr.webstorm.bolts.FeedReaderBolt;
 import org.fit.burgetr.webstorm.bolts.IndexBolt;
 import org.fit.burgetr.webstorm.bolts.NKStoreBolt;
 import org.fit.burgetr.webstorm.spouts.FeedURLSpout;
+import org.fit.burgetr.webstorm.util.DomPruner;
+import org.fit.burgetr.webstorm.util.ImageFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,9 +59,23 @@ public class RssMonitorTopologyDistr
         FeedURLSpout urlSpout = new FeedURLSpout("http://valentine.farmacie.cz/~skoda/juniper/rss.txt",uuid);
         FeedReaderBolt reader = new FeedReaderBolt(uuid);
         DownloaderBolt downloader = new DownloaderBolt(uuid);
+        downloader.setImageFilter(new ImageFilter());
         AnalyzerBolt analyzer = new AnalyzerBolt("kw","img",uuid);
+        analyzer.setBatchKeywords(true);
+        analyzer.setAnalysisTimeout(20000, true);
+        analyzer.setDomPruner(new DomPruner(false));
+        analyzer.setNamePrefilter(true);
+        analyzer.setSiteTemplates(3);
+        analyzer.setNameCacheSize(50000);
+        analyzer.setIncrementalAnalysis(10000);
+        analyzer.setTopKeywords(10);
         ExtractFeaturesBolt extractor = new ExtractFeaturesBolt(uuid);
+        extractor.setImageFilter(new ImageFilter());
+        extractor.setFeatureCache(100000, null);
+        extractor.setParallelExtraction(16, -1);
         IndexBolt indexer=new IndexBolt(uuid);
+        indexer.setNearDuplicates(4, 10000);
+        indexer.setCommitPolicy(100, 5000, 8);
         //NKStoreBolt nkstore = new NKStoreBolt();
         
         //create the topology
@@ -68,12 +85,15 @@ public class RssMonitorTopologyDistr
         builder.setBolt("FeedReaderBolt", reader, 3).shuffleGrouping("FeedUrlSpout");
         builder.setBolt("DownloaderBolt", downloader, 4).shuffleGrouping("FeedReaderBolt");
         builder.setBolt("AnalyzerBolt", analyzer, 3).shuffleGrouping("DownloaderBolt");
-        builder.setBolt("ExtractFeaturesBolt", extractor, 2).globalGrouping("AnalyzerBolt", "img");
-        builder.setBolt("IndexBolt", indexer,3).shuffleGrouping("ExtractFeaturesBolt");
+        builder.setBolt("ExtractFeaturesBolt", extractor, 2).fieldsGrouping("AnalyzerBolt", "img", new Fields("image_hash"));
+        //each indexer task keeps its own index, the copies of an image must reach the same task
+        builder.setBolt("IndexBolt", indexer,3).fieldsGrouping("ExtractFeaturesBolt", new Fields("image_hash"));
         //builder.setBolt("nkstore", nkstore, 1).globalGrouping("analyzer", "kw");
 
         Config conf = new Config();
         conf.setDebug(true);
+        //a page may spend the analysis time limit and wait for the pages before it in the analyzer
+        conf.setMessageTimeoutSecs(120);
         conf.put(Config.TOPOLOGY_DEBUG, true);
         conf.setNumWorkers(8);
         conf.setMaxSpoutPending(5000);
@@ -0,0 +1,212 @@
+/**
+ * ArticleHistory.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.net.URL;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The results of the previous analyses of the recently processed pages identified by their urls. When a page
+ * is processed again (e.g. an updated article), the unchanged name blocks need not be analyzed again and only
+ * the relations that have not been emitted for the page yet are used. Only the relations found in the last
+ * complete analysis of the page are remembered as emitted so that the history of a frequently changing page
+ * does not grow. The instances are thread-safe.
+ *
+ * @author burgetr
+ */
+public class ArticleHistory
+{
+    /** Maximal number of the emitted relations remembered for a page after the partial analyses */
+    public static final int MAX_EMITTED = 10000;
+
+    private Map<String, Article> articles;
+
+    /**
+     * Creates the history.
+     * @param maxUrls the maximal number of pages remembered
+     */
+    public ArticleHistory(final int maxUrls)
+    {
+        articles = new LinkedHashMap<String, Article>(1024, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Article> eldest)
+            {
+                return size() > maxUrls;
+            }
+        };
+    }
+
+    /**
+     * Obtains the history of a page. A new empty history is created when the page has not been processed yet.
+     * @param url the page url
+     * @return the page history
+     */
+    public synchronized Article getArticle(String url)
+    {
+        Article ret = articles.get(url);
+        if (ret == null)
+        {
+            ret = new Article();
+            articles.put(url, ret);
+        }
+        return ret;
+    }
+
+    public synchronized int size()
+    {
+        return articles.size();
+    }
+
+    //===========================================================================================
+
+    /**
+     * The history of a single page.
+     */
+    public static class Article
+    {
+        /** The fingerprint of the last processed page source or 0 when not processed yet */
+        private long pageHash;
+        /** The relations discovered in the name blocks of the last processed version */
+        private Map<Long, BlockRelations> blocks;
+        /** The fingerprints of the emitted relations that are still present in the page */
+        private Set<Long> emitted;
+
+        public Article()
+        {
+            emitted = new HashSet<Long>();
+        }
+
+        /**
+         * Checks whether the page source is the same as the last processed one.
+         * @param hash the fingerprint of the page source
+         * @return {@code true} when the page has not changed
+         */
+        public synchronized boolean isUnchanged(long hash)
+        {
+            return pageHash != 0 && pageHash == hash;
+        }
+
+        public synchronized Map<Long, BlockRelations> getBlocks()
+        {
+            return blocks;
+        }
+
+        public synchronized void setBlocks(Map<Long, BlockRelations> blocks)
+        {
+            this.blocks = blocks;
+        }
+
+        /**
+         * Records a newly processed version of the page and removes the relations that have been already
+         * emitted for the previous versions from the analysis result. All the new relations are considered
+         * to be emitted.
+         * @param hash the fingerprint of the page source
+         * @param analysis the analysis of the new version
+         * @return the analysis containing the new relations only
+         * @see #getNewRelations(PageAnalysis)
+         * @see #update(long, PageAnalysis, PageAnalysis)
+         */
+        public synchronized PageAnalysis update(long hash, PageAnalysis analysis)
+        {
+            PageAnalysis ret = getNewRelations(analysis);
+            update(hash, analysis, ret);
+            return ret;
+        }
+
+        /**
+         * Removes the relations that have been already emitted for the page from an analysis result.
+         * The history is not changed.
+         * @param analysis the analysis of the new version
+         * @return the analysis containing the new relations only
+         */
+        public synchronized PageAnalysis getNewRelations(PageAnalysis analysis)
+        {
+            PageAnalysis ret = new PageAnalysis();
+            ret.setPartial(analysis.isPartial());
+            for (Map.Entry<String, Set<String>> entry : analysis.getKeywords().entrySet())
+            {
+                String name = entry.getKey();
+                long nameHash = Fingerprint.of(name);
+                for (String keyword : entry.getValue())
+                {
+                    if (!emitted.contains(keywordKey(nameHash, keyword)))
+                        ret.addKeyword(name, keyword, analysis.getKeywordCount(name, keyword));
+                }
+            }
+            for (Map.Entry<String, Set<URL>> entry : analysis.getImages().entrySet())
+            {
+                String name = entry.getKey();
+                long nameHash = Fingerprint.of(name);
+                Set<URL> images = new HashSet<URL>();
+                for (URL url : entry.getValue())
+                {
+                    if (!emitted.contains(imageKey(nameHash, url)))
+                        images.add(url);
+                }
+                if (!images.isEmpty())
+                    ret.addImages(name, images);
+            }
+            return ret;
+        }
+
+        /**
+         * Records a newly processed version of the page. A partial analysis result does not mark the page
+         * as processed so that the next version is analyzed again even when it is not changed.
+         * @param hash the fingerprint of the page source
+         * @param analysis the analysis of the new version
+         * @param emittedNow the relations of the new version that have been emitted
+         */
+        public synchronized void update(long hash, PageAnalysis analysis, PageAnalysis emittedNow)
+        {
+            Set<Long> now = fingerprints(emittedNow);
+            if (analysis.isPartial())
+            {
+                //the relations missing in a partial result may be still present in the page
+                emitted.addAll(now);
+                if (emitted.size() > MAX_EMITTED)
+                    emitted = now;
+            }
+            else
+            {
+                //only the emitted relations still present in the page are remembered
+                emitted.retainAll(fingerprints(analysis));
+                emitted.addAll(now);
+                pageHash = hash;
+            }
+        }
+
+        private Set<Long> fingerprints(PageAnalysis analysis)
+        {
+            Set<Long> ret = new HashSet<Long>();
+            for (Map.Entry<String, Set<String>> entry : analysis.getKeywords().entrySet())
+            {
+                long nameHash = Fingerprint.of(entry.getKey());
+                for (String keyword : entry.getValue())
+                    ret.add(keywordKey(nameHash, keyword));
+            }
+            for (Map.Entry<String, Set<URL>> entry : analysis.getImages().entrySet())
+            {
+                long nameHash = Fingerprint.of(entry.getKey());
+                for (URL url : entry.getValue())
+                    ret.add(imageKey(nameHash, url));
+            }
+            return ret;
+        }
+
+        private static long keywordKey(long nameHash, String keyword)
+        {
+            return Fingerprint.mix(Fingerprint.mix(nameHash, 'k'), Fingerprint.of(keyword));
+        }
+
+        private static long imageKey(long nameHash, URL url)
+        {
+            return Fingerprint.mix(Fingerprint.mix(nameHash, 'i'), Fingerprint.of(url.toString()));
+        }
+    }
+
+}
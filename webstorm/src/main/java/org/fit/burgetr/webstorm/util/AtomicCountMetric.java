@@ -0,0 +1,33 @@
+/**
+ * AtomicCountMetric.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * A counting metric that may be safely incremented from other threads than the executor thread.
+ * @author burgetr
+ */
+public class AtomicCountMetric implements IMetric
+{
+    private AtomicLong value = new AtomicLong();
+
+    public void incr()
+    {
+        value.incrementAndGet();
+    }
+
+    public void incrBy(long incrementBy)
+    {
+        value.addAndGet(incrementBy);
+    }
+
+    public Object getValueAndReset()
+    {
+        return value.getAndSet(0);
+    }
+
+}
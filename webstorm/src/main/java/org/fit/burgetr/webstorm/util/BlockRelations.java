@@ -0,0 +1,35 @@
+/**
+ * BlockRelations.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The names and the related keywords discovered for a single name node of a page. The instances are immutable
+ * so that they may be reused when the same block appears again.
+ * @author burgetr
+ */
+public class BlockRelations
+{
+    private Set<String> names;
+    private Set<String> keywords;
+
+    public BlockRelations(Set<String> names, Set<String> keywords)
+    {
+        this.names = Collections.unmodifiableSet(names);
+        this.keywords = Collections.unmodifiableSet(keywords);
+    }
+
+    public Set<String> getNames()
+    {
+        return names;
+    }
+
+    public Set<String> getKeywords()
+    {
+        return keywords;
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * CountMinSketch.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.util.Arrays;
+
+/**
+ * A count-min sketch: approximate counts of text strings in a fixed amount of memory. The estimates are never
+ * lower than the real counts; they may be higher due to the hash collisions. The row positions are derived from
+ * a single 64-bit fingerprint by double hashing; the step is always odd so that a key is mapped to a different
+ * cell in each row of the power-of-two width. The instances are not thread-safe.
+ *
+ * @author burgetr
+ */
+public class CountMinSketch
+{
+    private int depth;
+    private int mask;
+    private int[][] counts;
+
+    /**
+     * Creates an empty sketch.
+     * @param depth the number of hash functions (rows)
+     * @param widthBits the base 2 logarithm of the row width
+     */
+    public CountMinSketch(int depth, int widthBits)
+    {
+        this.depth = depth;
+        this.mask = (1 << widthBits) - 1;
+        this.counts = new int[depth][1 << widthBits];
+    }
+
+    /**
+     * Increments the count of a string.
+     * @param key the string
+     */
+    public void add(CharSequence key)
+    {
+        long h = Fingerprint.of(key);
+        for (int i = 0; i < depth; i++)
+            counts[i][cell(h, i)]++;
+    }
+
+    /**
+     * Estimates the count of a string.
+     * @param key the string
+     * @return the estimated count
+     */
+    public int estimate(CharSequence key)
+    {
+        long h = Fingerprint.of(key);
+        int ret = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++)
+            ret = Math.min(ret, counts[i][cell(h, i)]);
+        return ret;
+    }
+
+    /**
+     * Adds all the counts of another sketch of the same dimensions to this sketch.
+     * @param other the sketch to be added
+     */
+    public void merge(CountMinSketch other)
+    {
+        if (other.depth != depth || other.mask != mask)
+            throw new IllegalArgumentException("Sketch dimensions do not match");
+        for (int i = 0; i < depth; i++)
+        {
+            int[] row = counts[i];
+            int[] orow = other.counts[i];
+            for (int j = 0; j < row.length; j++)
+                row[j] += orow[j];
+        }
+    }
+
+    /**
+     * Halves all the counts (rounding down) so that the older counts lose their weight.
+     */
+    public void halve()
+    {
+        for (int[] row : counts)
+        {
+            for (int j = 0; j < row.length; j++)
+                row[j] >>>= 1;
+        }
+    }
+
+    /**
+     * Resets all the counts to zero.
+     */
+    public void clear()
+    {
+        for (int[] row : counts)
+            Arrays.fill(row, 0);
+    }
+
+    /**
+     * Computes the cell used for a key in a row.
+     * @param h the key fingerprint
+     * @param row the row index
+     * @return the cell index within the row
+     */
+    int cell(long h, int row)
+    {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1; //odd, so that the step is coprime with the width
+        return (h1 + row * h2) & mask;
+    }
+
+}
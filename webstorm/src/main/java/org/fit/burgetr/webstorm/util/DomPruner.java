@@ -0,0 +1,165 @@
+/**
+ * DomPruner.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * Removes the DOM subtrees that do not contain any useful content (scripts, embedded objects,
+ * navigation, comments, social widgets, etc.) before the page layout is computed. Optionally,
+ * the page body may be limited to the main content region only.
+ * The style sheets are always preserved since they influence the layout.
+ *
+ * @author burgetr
+ */
+public class DomPruner implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The default selector of the elements to be removed. The id and class names must start with one of the keywords
+     * (optionally followed by 's' and '-' or '_' suffixes) so that e.g. {@code comment-list} matches while
+     * {@code commentary} or {@code has-social-bar} do not. Forms are kept since some frameworks (ASP.NET WebForms)
+     * wrap the whole page body in a form.
+     */
+    public static final String DEFAULT_REMOVE = "script, noscript, iframe, frame, object, embed, applet, nav, "
+            + "[role=navigation], [id~=(?i)^comments?(-\\w+|_\\w+)*$], "
+            + "[class~=(?i)(^|\\s)(comment|social|share|sharing|advert|sponsor|promo|newsletter|menu|navbar|breadcrumb|cookie)s?(-\\w+|_\\w+)*(\\s|$)]";
+
+    /** The selectors used for finding the main content region in the first place */
+    public static final String MAIN_CONTENT = "article, [role=main], main, [itemprop=articleBody]";
+
+    /** Minimal share of the body text that must be contained in the main content region */
+    private static final double MIN_MAIN_SHARE = 0.25;
+
+    private String removeSelector;
+    private boolean mainContentOnly;
+
+    /**
+     * Creates a pruner that removes the elements matching the default selector.
+     * @param mainContentOnly {@code true} when the page body should be limited to the main content region
+     */
+    public DomPruner(boolean mainContentOnly)
+    {
+        this(DEFAULT_REMOVE, mainContentOnly);
+    }
+
+    /**
+     * Creates a pruner.
+     * @param removeSelector the selector of the elements to be removed
+     * @param mainContentOnly {@code true} when the page body should be limited to the main content region
+     */
+    public DomPruner(String removeSelector, boolean mainContentOnly)
+    {
+        this.removeSelector = removeSelector;
+        this.mainContentOnly = mainContentOnly;
+    }
+
+    public String getRemoveSelector()
+    {
+        return removeSelector;
+    }
+
+    public boolean isMainContentOnly()
+    {
+        return mainContentOnly;
+    }
+
+    /**
+     * Prunes the document in place.
+     * @param doc the document to be pruned
+     * @return the number of removed elements
+     */
+    public int prune(Document doc)
+    {
+        Element body = doc.body();
+        if (body == null)
+            return 0;
+
+        Elements toRemove = body.select(removeSelector);
+        //the elements that contain a substantial part of the text are never removed
+        int minLength = (int) (body.text().length() * MIN_MAIN_SHARE);
+        int cnt = 0;
+        for (Element elem : toRemove)
+        {
+            if (elem.parent() != null && elem != body && !isMainPart(elem, minLength)) //may have been removed with an ancestor already
+            {
+                elem.remove();
+                cnt++;
+            }
+        }
+
+        if (mainContentOnly)
+        {
+            Element main = findMainContent(body);
+            if (main != null && main != body)
+            {
+                main.remove();
+                body.empty();
+                body.appendChild(main);
+            }
+        }
+        return cnt;
+    }
+
+    /**
+     * Checks whether the element contains a substantial part of the page text.
+     */
+    private boolean isMainPart(Element elem, int minLength)
+    {
+        int len = elem.text().length();
+        return len > 0 && len >= minLength;
+    }
+
+    /**
+     * Finds the main content region using simple heuristics: the semantic elements are tried first,
+     * then the element that directly contains most of the paragraph text is used.
+     * @param body the document body
+     * @return the main content element or {@code null} when no suitable element has been found
+     */
+    protected Element findMainContent(Element body)
+    {
+        int total = body.text().length();
+        if (total == 0)
+            return null;
+        int minLength = (int) (total * MIN_MAIN_SHARE);
+
+        for (Element cand : body.select(MAIN_CONTENT))
+        {
+            if (cand.text().length() >= minLength)
+                return cand;
+        }
+
+        //sum the paragraph text lengths for the paragraph parents
+        Map<Element, Integer> scores = new IdentityHashMap<Element, Integer>();
+        Element best = null;
+        int bestScore = 0;
+        for (Element p : body.select("p"))
+        {
+            Element parent = p.parent();
+            if (parent != null)
+            {
+                Integer score = scores.get(parent);
+                int newScore = (score == null ? 0 : score) + p.text().length();
+                scores.put(parent, newScore);
+                if (newScore > bestScore)
+                {
+                    best = parent;
+                    bestScore = newScore;
+                }
+            }
+        }
+        if (best != null && best.text().length() >= minLength)
+            return best;
+        else
+            return null;
+    }
+
+}
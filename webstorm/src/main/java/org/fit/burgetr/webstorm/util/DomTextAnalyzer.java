@@ -0,0 +1,128 @@
+/**
+ * DomTextAnalyzer.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.burgetr.segm.tagging.taggers.Tagger;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * A cheap analysis of a page that only uses the text of the DOM block elements and skips the layout
+ * and segmentation completely. The keywords related to a name are taken from the block that contains
+ * the name and from the page title. No images are discovered since their position is not known.
+ *
+ * @author burgetr
+ */
+public class DomTextAnalyzer
+{
+    /** The elements considered as text blocks */
+    public static final String BLOCKS = "p, li, h1, h2, h3, h4, h5, h6, td, th, dd, dt, blockquote, figcaption, caption, pre";
+
+    private Document doc;
+    private NameCache nameCache;
+    private boolean incomplete;
+
+    /**
+     * Creates an analyzer for a parsed document.
+     * @param doc the DOM of the page
+     */
+    public DomTextAnalyzer(Document doc)
+    {
+        this.doc = doc;
+    }
+
+    /**
+     * Sets the cache used for the name recognition.
+     * @param nameCache the cache to be used or {@code null} for recognizing all the names directly
+     */
+    public void setNameCache(NameCache nameCache)
+    {
+        this.nameCache = nameCache;
+    }
+
+    /**
+     * Discovers the name - keyword relationships in the document.
+     * @param tagger The name tagger to be used for recoginizing the names
+     * @return The analysis result containing the keywords only
+     */
+    public PageAnalysis analyze(Tagger tagger)
+    {
+        return analyze(tagger, Long.MAX_VALUE);
+    }
+
+    /**
+     * Discovers the name - keyword relationships in the document within a time limit. When the limit is exceeded,
+     * the remaining blocks are skipped and the relationships found so far are returned.
+     * @param tagger The name tagger to be used for recoginizing the names
+     * @param deadline The time (in milliseconds since the epoch) when the analysis should stop
+     * @return The analysis result containing the keywords only
+     */
+    public PageAnalysis analyze(Tagger tagger, long deadline)
+    {
+        PageAnalysis ret = new PageAnalysis();
+        incomplete = false;
+        Set<String> titleKeywords = KeywordTokenizer.extractKeywords(doc.title());
+
+        Elements blocks = doc.select(BLOCKS);
+        Set<Element> blockSet = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+        blockSet.addAll(blocks);
+        for (Element block : blocks)
+        {
+            if (System.currentTimeMillis() > deadline)
+            {
+                incomplete = true;
+                break;
+            }
+            if (!hasBlockAncestor(block, blockSet))
+            {
+                String text = block.text();
+                if (!text.isEmpty())
+                {
+                    Set<String> names = (nameCache != null) ? nameCache.getSurnames(text, tagger)
+                                                            : NameExtractor.extractSurnames(text, tagger);
+                    if (!names.isEmpty())
+                    {
+                        Set<String> keywords = new HashSet<String>(titleKeywords);
+                        KeywordTokenizer.extractKeywords(text, keywords);
+                        for (String name : names)
+                            ret.addKeywords(name, keywords);
+                    }
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Checks whether the last analysis has been stopped because of the time limit.
+     * @return {@code true} when some blocks have not been analyzed
+     */
+    public boolean isIncomplete()
+    {
+        return incomplete;
+    }
+
+    /**
+     * Checks whether the element is nested in another block so that its text has been already processed.
+     */
+    private boolean hasBlockAncestor(Element elem, Set<Element> blockSet)
+    {
+        Element parent = elem.parent();
+        while (parent != null)
+        {
+            if (blockSet.contains(parent))
+                return true;
+            parent = parent.parent();
+        }
+        return false;
+    }
+
+}
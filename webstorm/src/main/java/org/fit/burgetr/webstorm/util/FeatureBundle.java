@@ -0,0 +1,71 @@
+/**
+ * FeatureBundle.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of several image descriptors: the number of descriptors followed by the index field name,
+ * the length and the byte representation of each descriptor.
+ *
+ * @author burgetr
+ */
+public class FeatureBundle
+{
+
+    /**
+     * Encodes the descriptors.
+     * @param descriptors a map that assigns the byte representations of the descriptors to the index field names
+     * @return the encoded bundle
+     */
+    public static byte[] encode(Map<String, byte[]> descriptors)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(descriptors.size());
+            for (Map.Entry<String, byte[]> entry : descriptors.entrySet())
+            {
+                out.writeUTF(entry.getKey());
+                out.writeShort(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+            out.close();
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e); //cannot happen for a byte array
+        }
+    }
+
+    /**
+     * Decodes the descriptors.
+     * @param bundle the encoded bundle
+     * @return a map that assigns the byte representations of the descriptors to the index field names
+     * @throws IOException when the bundle is not valid
+     */
+    public static Map<String, byte[]> decode(byte[] bundle) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bundle));
+        int count = in.readUnsignedByte();
+        Map<String, byte[]> ret = new LinkedHashMap<String, byte[]>(count * 2);
+        for (int i = 0; i < count; i++)
+        {
+            String field = in.readUTF();
+            byte[] data = new byte[in.readUnsignedShort()];
+            in.readFully(data);
+            ret.put(field, data);
+        }
+        return ret;
+    }
+
+}
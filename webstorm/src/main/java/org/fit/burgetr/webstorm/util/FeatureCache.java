@@ -0,0 +1,252 @@
+/**
+ * FeatureCache.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded cache of the image features identified by the SHA-1 hashes of the image data so that the same image
+ * obtained from different pages or urls is only decoded and processed once. Optionally, the cache is persisted
+ * in a local file: the new entries are appended to the file and the file is compacted when the cache is loaded
+ * and whenever the number of the appended entries exceeds the cache size.
+ * The file starts with a signature of the feature extraction settings; a file with a different signature is
+ * discarded as well as a corrupt file. The instances are thread-safe.
+ *
+ * @author burgetr
+ */
+public class FeatureCache
+{
+    private static final Logger log = LoggerFactory.getLogger(FeatureCache.class);
+    /** Maximal size of the features of a single image accepted from the file */
+    public static final int MAX_FEATURE_SIZE = 1 << 20;
+
+    private Map<String, byte[]> cache;
+    private File file;
+    private String signature;
+    private DataOutputStream out;
+    private int maxEntries;
+    private int appended;
+
+    /**
+     * Creates a memory-only cache.
+     * @param maxEntries the maximal number of cached images
+     */
+    public FeatureCache(int maxEntries)
+    {
+        this(maxEntries, null, null);
+    }
+
+    /**
+     * Creates a cache persisted in a local file. The existing entries are loaded from the file.
+     * @param maxEntries the maximal number of cached images
+     * @param file the file used for persisting the cache or {@code null} for a memory-only cache
+     * @param signature the feature extraction settings; the features stored with other settings are not used
+     */
+    public FeatureCache(final int maxEntries, File file, String signature)
+    {
+        cache = new LinkedHashMap<String, byte[]>(1024, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+        this.maxEntries = maxEntries;
+        this.file = file;
+        this.signature = (signature == null) ? "" : signature;
+        if (file != null)
+        {
+            load();
+            compact();
+        }
+    }
+
+    /**
+     * Computes the cache key for the image data.
+     * @param data the image data
+     * @return the hexadecimal SHA-1 hash of the data
+     */
+    public static String contentKey(byte[] data)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder ret = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+            {
+                ret.append(Character.forDigit((b >> 4) & 0xf, 16));
+                ret.append(Character.forDigit(b & 0xf, 16));
+            }
+            return ret.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    /**
+     * Obtains the cached features.
+     * @param key the content key
+     * @return the features or {@code null} when not cached
+     */
+    public synchronized byte[] get(String key)
+    {
+        return cache.get(key);
+    }
+
+    /**
+     * Stores the features in the cache (and the file when used).
+     * @param key the content key
+     * @param features the features
+     */
+    public synchronized void put(String key, byte[] features)
+    {
+        if (cache.put(key, features) == null && out != null)
+        {
+            try
+            {
+                writeEntry(out, key, features);
+                if (++appended > maxEntries)
+                {
+                    closeFile();
+                    compact();
+                }
+            }
+            catch (IOException e)
+            {
+                log.error("Cannot write the feature cache file: " + e.getMessage());
+                closeFile();
+            }
+        }
+    }
+
+    public synchronized int size()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Flushes the pending entries to the file.
+     */
+    public synchronized void flush()
+    {
+        if (out != null)
+        {
+            try
+            {
+                out.flush();
+            }
+            catch (IOException e)
+            {
+                log.error("Cannot write the feature cache file: " + e.getMessage());
+                closeFile();
+            }
+        }
+    }
+
+    //===========================================================================================
+
+    private void load()
+    {
+        if (!file.exists())
+            return;
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try
+            {
+                if (!signature.equals(in.readUTF()))
+                {
+                    log.info("Feature cache " + file + " created with different settings, discarding");
+                    return;
+                }
+                while (true)
+                {
+                    String key = in.readUTF();
+                    int len = in.readInt();
+                    if (len < 0 || len > MAX_FEATURE_SIZE)
+                        throw new IOException("invalid entry length " + len);
+                    byte[] features = new byte[len];
+                    in.readFully(features);
+                    cache.put(key, features);
+                }
+            }
+            catch (EOFException e)
+            {
+                //end of file or an incomplete last entry
+            }
+            finally
+            {
+                in.close();
+            }
+            log.info("Loaded " + cache.size() + " cached features from " + file);
+        }
+        catch (IOException e)
+        {
+            log.error("Corrupt feature cache file " + file + ", discarding: " + e.getMessage());
+            cache.clear();
+        }
+    }
+
+    /**
+     * Rewrites the file with the current entries and keeps it open for appending the new ones.
+     */
+    private void compact()
+    {
+        try
+        {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeUTF(signature);
+            for (Map.Entry<String, byte[]> entry : cache.entrySet())
+                writeEntry(out, entry.getKey(), entry.getValue());
+            out.flush();
+            appended = 0;
+        }
+        catch (IOException e)
+        {
+            log.error("Cannot write the feature cache file: " + e.getMessage());
+            closeFile();
+        }
+    }
+
+    private void writeEntry(DataOutputStream out, String key, byte[] features) throws IOException
+    {
+        out.writeUTF(key);
+        out.writeInt(features.length);
+        out.write(features);
+    }
+
+    private void closeFile()
+    {
+        if (out != null)
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {
+            }
+            out = null;
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * FeatureExtractor.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.semanticmetadata.lire.imageanalysis.CEDD;
+import net.semanticmetadata.lire.imageanalysis.FCTH;
+import net.semanticmetadata.lire.imageanalysis.JCD;
+import net.semanticmetadata.lire.imageanalysis.LireFeature;
+
+/**
+ * Extracts a configured set of LIRE descriptors from a single decoded image. The image is converted to the RGB
+ * color model once and shared by all the descriptors; JCD is composed from CEDD and FCTH when they are extracted too.
+ * The bundle always contains the {@link PerceptualHash} of the image as well.
+ * The result is encoded as a {@link FeatureBundle}.
+ *
+ * @author burgetr
+ */
+public class FeatureExtractor
+{
+    /** The package of the LIRE descriptors used for the short descriptor names */
+    public static final String LIRE_PACKAGE = "net.semanticmetadata.lire.imageanalysis.";
+    /** The bundle field containing the perceptual hash of the image */
+    public static final String FIELD_NAME_DHASH = "dhash";
+
+    private List<Class<? extends LireFeature>> descriptors;
+
+    /**
+     * Creates an extractor.
+     * @param names the descriptor class names; the names without a package (e.g. "CEDD") are
+     * taken from the LIRE image analysis package
+     * @throws IllegalArgumentException when a descriptor class is not found
+     */
+    public FeatureExtractor(String[] names)
+    {
+        descriptors = new ArrayList<Class<? extends LireFeature>>(names.length);
+        for (String name : names)
+        {
+            String cname = (name.indexOf('.') == -1) ? LIRE_PACKAGE + name : name;
+            try
+            {
+                descriptors.add(Class.forName(cname).asSubclass(LireFeature.class));
+            }
+            catch (ClassNotFoundException e)
+            {
+                throw new IllegalArgumentException("Unknown descriptor " + name);
+            }
+            catch (ClassCastException e)
+            {
+                throw new IllegalArgumentException(name + " is not a LIRE feature");
+            }
+        }
+    }
+
+    /**
+     * Extracts all the descriptors.
+     * @param image the decoded image
+     * @return the encoded feature bundle
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     */
+    public byte[] extract(BufferedImage image) throws InstantiationException, IllegalAccessException
+    {
+        BufferedImage rgb = toRgb(image);
+        Map<String, byte[]> ret = new LinkedHashMap<String, byte[]>();
+        CEDD cedd = null;
+        FCTH fcth = null;
+        List<JCD> jcds = new ArrayList<JCD>(1);
+        for (Class<? extends LireFeature> cls : descriptors)
+        {
+            LireFeature feature = cls.newInstance();
+            if (feature instanceof JCD)
+            {
+                jcds.add((JCD) feature);
+                ret.put(feature.getFieldName(), null); //composed later, keep the configured order
+            }
+            else
+            {
+                feature.extract(rgb);
+                if (feature instanceof CEDD)
+                    cedd = (CEDD) feature;
+                else if (feature instanceof FCTH)
+                    fcth = (FCTH) feature;
+                ret.put(feature.getFieldName(), feature.getByteArrayRepresentation());
+            }
+        }
+        for (JCD jcd : jcds)
+        {
+            if (cedd != null && fcth != null)
+                jcd.init(cedd, fcth);
+            else
+                jcd.extract(rgb);
+            ret.put(jcd.getFieldName(), jcd.getByteArrayRepresentation());
+        }
+        ret.put(FIELD_NAME_DHASH, PerceptualHash.toBytes(PerceptualHash.dHash(rgb)));
+        return FeatureBundle.encode(ret);
+    }
+
+    /**
+     * Converts the image to the RGB color model unless it already uses it.
+     */
+    private BufferedImage toRgb(BufferedImage image)
+    {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB)
+            return image;
+        BufferedImage ret = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = ret.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return ret;
+    }
+
+}
@@ -0,0 +1,48 @@
+/**
+ * Fingerprint.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+/**
+ * 64-bit FNV-1a fingerprints of text strings used as cache keys.
+ * @author burgetr
+ */
+public class Fingerprint
+{
+    public static final long OFFSET = 0xcbf29ce484222325L;
+    public static final long PRIME = 0x100000001b3L;
+
+    /**
+     * Computes the fingerprint of a character sequence.
+     * @param text the text
+     * @return the fingerprint
+     */
+    public static long of(CharSequence text)
+    {
+        long h = OFFSET;
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            h = (h ^ (c & 0xff)) * PRIME;
+            h = (h ^ (c >>> 8)) * PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * Combines a fingerprint with another value.
+     * @param h the fingerprint
+     * @param value the value to be added
+     * @return the new fingerprint
+     */
+    public static long mix(long h, long value)
+    {
+        for (int i = 0; i < 8; i++)
+        {
+            h = (h ^ (value & 0xff)) * PRIME;
+            value >>>= 8;
+        }
+        return h;
+    }
+
+}
@@ -0,0 +1,142 @@
+/**
+ * ImageDecoder.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes the images at a reduced resolution. The image dimensions are read from the image header first
+ * and the image is decoded with source subsampling so that the full resolution raster is never created.
+ *
+ * @author burgetr
+ */
+public class ImageDecoder
+{
+    private int maxDimension;
+    private long maxSourcePixels;
+    private ImageFilter filter;
+
+    /**
+     * Creates a decoder.
+     * @param maxDimension the maximal width and height of the decoded images
+     * @param maxSourcePixels the maximal number of pixels of the source images; larger images are rejected
+     */
+    public ImageDecoder(int maxDimension, long maxSourcePixels)
+    {
+        this.maxDimension = maxDimension;
+        this.maxSourcePixels = maxSourcePixels;
+    }
+
+    public int getMaxDimension()
+    {
+        return maxDimension;
+    }
+
+    public long getMaxSourcePixels()
+    {
+        return maxSourcePixels;
+    }
+
+    /**
+     * Sets the admission filter checked before the images are decoded.
+     * @param filter the filter or {@code null} for decoding all the images
+     */
+    public void setFilter(ImageFilter filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+     * Decodes an image so that its dimensions do not exceed the maximal dimension.
+     * @param data the encoded image data
+     * @return the decoded image or {@code null} when the source image is too large or rejected by the filter
+     * @throws IOException when the image format is not supported or the data is corrupted
+     */
+    public BufferedImage decode(byte[] data) throws IOException
+    {
+        ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+        if (iis == null)
+            throw new IOException("Cannot create the image input stream");
+        try
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext())
+                throw new IOException("Unsupported image format");
+            ImageReader reader = readers.next();
+            try
+            {
+                reader.setInput(iis, true, true);
+                //the dimensions are obtained from the header only
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxSourcePixels)
+                    return null;
+                if (filter != null && !filter.accept(width, height))
+                    return null;
+                
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = (Math.max(width, height) + maxDimension - 1) / maxDimension;
+                if (step > 1)
+                    param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+        finally
+        {
+            iis.close();
+        }
+    }
+
+    /**
+     * Reads the image dimensions from the image header. The data may only contain the beginning of the image.
+     * @param data the encoded image data or its beginning
+     * @return the [width, height] array or {@code null} when the format is not supported or the header is not complete
+     */
+    public static int[] readSize(byte[] data)
+    {
+        try
+        {
+            ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+            if (iis == null)
+                return null;
+            try
+            {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+                if (!readers.hasNext())
+                    return null;
+                ImageReader reader = readers.next();
+                try
+                {
+                    reader.setInput(iis, true, true);
+                    return new int[] {reader.getWidth(0), reader.getHeight(0)};
+                }
+                finally
+                {
+                    reader.dispose();
+                }
+            }
+            finally
+            {
+                iis.close();
+            }
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+}
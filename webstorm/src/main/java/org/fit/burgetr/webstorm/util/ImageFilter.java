@@ -0,0 +1,122 @@
+/**
+ * ImageFilter.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.io.Serializable;
+
+import org.jsoup.nodes.Element;
+
+/**
+ * An admission filter that drops the images that are too small (icons, spacers, tracking pixels, small thumbnails)
+ * or have an extreme aspect ratio (separators, banners) before they are downloaded completely or decoded.
+ * The image dimensions are taken from the {@code width} and {@code height} attributes of the {@code img}
+ * elements or from the image headers.
+ *
+ * @author burgetr
+ */
+public class ImageFilter implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /** The default minimal width and height of an image */
+    public static final int DEFAULT_MIN_DIMENSION = 64;
+    /** The default maximal ratio of the longer and the shorter image side */
+    public static final double DEFAULT_MAX_ASPECT = 4.0;
+    /** Number of bytes downloaded before the image header is checked */
+    public static final int PROBE_BYTES = 8192;
+
+    private int minWidth;
+    private int minHeight;
+    private double maxAspect;
+
+    /**
+     * Creates a filter with the default thresholds.
+     */
+    public ImageFilter()
+    {
+        this(DEFAULT_MIN_DIMENSION, DEFAULT_MIN_DIMENSION, DEFAULT_MAX_ASPECT);
+    }
+
+    /**
+     * Creates a filter.
+     * @param minWidth the minimal image width
+     * @param minHeight the minimal image height
+     * @param maxAspect the maximal ratio of the longer and the shorter image side
+     */
+    public ImageFilter(int minWidth, int minHeight, double maxAspect)
+    {
+        this.minWidth = minWidth;
+        this.minHeight = minHeight;
+        this.maxAspect = maxAspect;
+    }
+
+    public int getMinWidth()
+    {
+        return minWidth;
+    }
+
+    public int getMinHeight()
+    {
+        return minHeight;
+    }
+
+    public double getMaxAspect()
+    {
+        return maxAspect;
+    }
+
+    /**
+     * Checks the image dimensions.
+     * @param width the image width
+     * @param height the image height
+     * @return {@code true} when the image should be processed
+     */
+    public boolean accept(int width, int height)
+    {
+        if (width < minWidth || height < minHeight)
+            return false;
+        double aspect = (width > height) ? (double) width / height : (double) height / width;
+        return aspect <= maxAspect;
+    }
+
+    /**
+     * Checks the image dimensions specified by the attributes of an {@code img} element. The images whose
+     * dimensions are not specified are accepted.
+     * @param img the {@code img} element
+     * @return {@code false} when the image is known to be rejected, {@code true} otherwise
+     */
+    public boolean acceptElement(Element img)
+    {
+        int width = parseDimension(img.attr("width"));
+        int height = parseDimension(img.attr("height"));
+        if (width == -1 || height == -1)
+        {
+            //only one dimension known
+            return (width == -1 || width >= minWidth) && (height == -1 || height >= minHeight);
+        }
+        else
+            return accept(width, height);
+    }
+
+    /**
+     * Parses a dimension attribute value in pixels.
+     * @param value the attribute value
+     * @return the dimension or -1 when not specified in pixels
+     */
+    private int parseDimension(String value)
+    {
+        String v = value.trim();
+        if (v.endsWith("px"))
+            v = v.substring(0, v.length() - 2).trim();
+        if (v.isEmpty() || v.length() > 6)
+            return -1;
+        for (int i = 0; i < v.length(); i++)
+        {
+            if (v.charAt(i) < '0' || v.charAt(i) > '9')
+                return -1;
+        }
+        return Integer.parseInt(v);
+    }
+
+}
@@ -0,0 +1,223 @@
+/**
+ * IndexTranslog.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the images indexed since the last index commit. The images are logged before they
+ * are indexed; once the log is synced to the disk, the images may be re-indexed from the log after a crash.
+ * The log is started again after each index commit. The log starts with the identifier of the deployment that
+ * created it; each record is protected by a checksum so that an incomplete last record is ignored.
+ * Each record carries the sequence number of the logged image so that the records already contained
+ * in the committed index may be skipped when the log is replayed.
+ * The instances are not thread-safe.
+ *
+ * @author burgetr
+ */
+public class IndexTranslog
+{
+    private File file;
+    private String deploymentId;
+    private FileOutputStream fos;
+    private DataOutputStream out;
+
+    /**
+     * Creates a translog.
+     * @param file the log file
+     * @param deploymentId the identifier of the current deployment
+     */
+    public IndexTranslog(File file, String deploymentId)
+    {
+        this.file = file;
+        this.deploymentId = deploymentId;
+    }
+
+    /**
+     * Checks whether the log file exists and it has been created by the current deployment.
+     * @return {@code true} when the log may be replayed
+     */
+    public boolean isReplayable()
+    {
+        if (!file.exists())
+            return false;
+        try
+        {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try
+            {
+                return deploymentId.equals(in.readUTF());
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Reads all the complete records of the log. Reading stops at the first damaged record.
+     * @return the logged images in the order of logging
+     * @throws IOException
+     */
+    public List<Entry> readEntries() throws IOException
+    {
+        List<Entry> ret = new ArrayList<Entry>();
+        long fileLength = file.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            in.readUTF();
+            while (true)
+            {
+                int length = in.readInt();
+                if (length < 0 || length > fileLength)
+                    break; //damaged length
+                long crc = in.readLong();
+                byte[] data = new byte[length];
+                in.readFully(data);
+                CRC32 check = new CRC32();
+                check.update(data);
+                if (check.getValue() != crc)
+                    break; //damaged record
+                ret.add(Entry.decode(data));
+            }
+        }
+        catch (EOFException e)
+        {
+            //end of the log or an incomplete record
+        }
+        finally
+        {
+            in.close();
+        }
+        return ret;
+    }
+
+    /**
+     * Starts a new empty log.
+     * @throws IOException
+     */
+    public void reset() throws IOException
+    {
+        close();
+        fos = new FileOutputStream(file);
+        out = new DataOutputStream(new BufferedOutputStream(fos));
+        out.writeUTF(deploymentId);
+        sync();
+    }
+
+    /**
+     * Appends an image to the log. The record is not durable until {@link #sync()} is called.
+     * @param entry the image to be logged
+     * @throws IOException
+     */
+    public void append(Entry entry) throws IOException
+    {
+        byte[] data = entry.encode();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        out.writeInt(data.length);
+        out.writeLong(crc.getValue());
+        out.write(data);
+    }
+
+    /**
+     * Writes all the appended records to the disk.
+     * @throws IOException
+     */
+    public void sync() throws IOException
+    {
+        out.flush();
+        fos.getFD().sync();
+    }
+
+    public void close() throws IOException
+    {
+        if (out != null)
+        {
+            out.close();
+            out = null;
+            fos = null;
+        }
+    }
+
+    //===========================================================================================
+
+    /**
+     * A logged image.
+     */
+    public static class Entry
+    {
+        public long seq;
+        public List<String> names;
+        public byte[] feature;
+        public byte[] imageData;
+        public String uuid;
+        public String imageUrl;
+
+        public Entry(long seq, List<String> names, byte[] feature, byte[] imageData, String uuid, String imageUrl)
+        {
+            this.seq = seq;
+            this.names = names;
+            this.feature = feature;
+            this.imageData = imageData;
+            this.uuid = uuid;
+            this.imageUrl = imageUrl;
+        }
+
+        private byte[] encode() throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(feature.length + imageData.length + 256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(seq);
+            out.writeInt(names.size());
+            for (String name : names)
+                out.writeUTF(name);
+            out.writeInt(feature.length);
+            out.write(feature);
+            out.writeInt(imageData.length);
+            out.write(imageData);
+            out.writeUTF(uuid);
+            out.writeUTF(imageUrl);
+            out.close();
+            return bytes.toByteArray();
+        }
+
+        private static Entry decode(byte[] data) throws IOException
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            long seq = in.readLong();
+            int cnt = in.readInt();
+            List<String> names = new ArrayList<String>(cnt);
+            for (int i = 0; i < cnt; i++)
+                names.add(in.readUTF());
+            byte[] feature = new byte[in.readInt()];
+            in.readFully(feature);
+            byte[] imageData = new byte[in.readInt()];
+            in.readFully(imageData);
+            String uuid = in.readUTF();
+            String imageUrl = in.readUTF();
+            return new Entry(seq, names, feature, imageData, uuid, imageUrl);
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * KeywordRelevance.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streaming document frequencies of the keywords used for scoring the name - keyword relationships
+ * in a TF-IDF manner. The global frequencies are shared within a worker; each executor counts the processed
+ * pages in its own {@link Local} sketch that is merged to the global one periodically so that the executors
+ * do not contend for the shared sketch on every page. The global frequencies decay: whenever the number of
+ * the counted pages reaches {@link #DECAY_DOCUMENTS}, all the global counts are halved so that the frequencies
+ * follow the recent pages in a long running topology.
+ *
+ * @author burgetr
+ */
+public class KeywordRelevance
+{
+    /** Number of hash functions of the sketches */
+    public static final int SKETCH_DEPTH = 4;
+    /** Base 2 logarithm of the sketch width */
+    public static final int SKETCH_WIDTH_BITS = 16;
+    /** Number of pages counted locally before merging to the global frequencies */
+    public static final int MERGE_INTERVAL = 50;
+    /** Number of globally counted pages when the global counts are halved */
+    public static final int DECAY_DOCUMENTS = 100000;
+
+    private CountMinSketch global;
+    private long globalDocuments;
+
+    public KeywordRelevance()
+    {
+        global = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH_BITS);
+        globalDocuments = 0;
+    }
+
+    /**
+     * Creates a new local counter for an executor.
+     * @return the local counter
+     */
+    public Local createLocal()
+    {
+        return new Local();
+    }
+
+    //===========================================================================================
+
+    /**
+     * The document frequencies counted by a single executor. The instances are thread-safe.
+     */
+    public class Local
+    {
+        private CountMinSketch local;
+        private long localDocuments;
+
+        private Local()
+        {
+            local = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH_BITS);
+            localDocuments = 0;
+        }
+
+        /**
+         * Counts the keywords of a page in the document frequencies.
+         * @param analysis the page analysis
+         */
+        public synchronized void count(PageAnalysis analysis)
+        {
+            Set<String> pageKeywords = new HashSet<String>();
+            for (Set<String> keywords : analysis.getKeywords().values())
+                pageKeywords.addAll(keywords);
+            for (String keyword : pageKeywords)
+                local.add(keyword);
+            localDocuments++;
+            if (localDocuments >= MERGE_INTERVAL)
+                merge();
+        }
+
+        /**
+         * Selects the most relevant keywords for each name. The keywords are scored by the number of name
+         * occurrences they are related to multiplied by their inverse document frequency. The page should
+         * be counted by {@link #count(PageAnalysis)} before.
+         * @param analysis the page analysis, possibly reduced to the relations that have not been emitted yet
+         * @param k the maximal number of keywords per name
+         * @return the analysis with the selected keywords only and all the images
+         */
+        public synchronized PageAnalysis selectTopKeywords(PageAnalysis analysis, int k)
+        {
+            PageAnalysis ret = new PageAnalysis();
+            synchronized (KeywordRelevance.this)
+            {
+                double docs = globalDocuments + localDocuments;
+                for (Map.Entry<String, Set<String>> entry : analysis.getKeywords().entrySet())
+                {
+                    String name = entry.getKey();
+                    Set<String> keywords = entry.getValue();
+                    List<ScoredKeyword> scored = new ArrayList<ScoredKeyword>(keywords.size());
+                    for (String keyword : keywords)
+                    {
+                        if (!keyword.equals(name)) //the name itself is never emitted
+                        {
+                            double df = global.estimate(keyword) + local.estimate(keyword);
+                            double idf = Math.log((docs + 1) / (df + 1)) + 1;
+                            scored.add(new ScoredKeyword(keyword, analysis.getKeywordCount(name, keyword) * idf));
+                        }
+                    }
+                    if (scored.size() > k)
+                        Collections.sort(scored, SCORE_ORDER);
+                    for (int i = 0; i < k && i < scored.size(); i++)
+                        ret.addKeyword(name, scored.get(i).keyword, analysis.getKeywordCount(name, scored.get(i).keyword));
+                }
+            }
+            for (Map.Entry<String, Set<URL>> entry : analysis.getImages().entrySet())
+                ret.addImages(entry.getKey(), entry.getValue());
+            ret.setPartial(analysis.isPartial());
+            return ret;
+        }
+
+        /**
+         * Merges the local frequencies to the global ones and resets the local counts.
+         */
+        public synchronized void merge()
+        {
+            synchronized (KeywordRelevance.this)
+            {
+                global.merge(local);
+                globalDocuments += localDocuments;
+                if (globalDocuments >= DECAY_DOCUMENTS)
+                {
+                    global.halve();
+                    globalDocuments /= 2;
+                }
+            }
+            local.clear();
+            localDocuments = 0;
+        }
+    }
+
+    private static class ScoredKeyword
+    {
+        public String keyword;
+        public double score;
+
+        public ScoredKeyword(String keyword, double score)
+        {
+            this.keyword = keyword;
+            this.score = score;
+        }
+    }
+
+    private static final Comparator<ScoredKeyword> SCORE_ORDER = new Comparator<ScoredKeyword>() {
+        public int compare(ScoredKeyword o1, ScoredKeyword o2)
+        {
+            if (o1.score != o2.score)
+                return (o1.score > o2.score) ? -1 : 1;
+            else
+                return o1.keyword.compareTo(o2.keyword);
+        }
+    };
+
+}
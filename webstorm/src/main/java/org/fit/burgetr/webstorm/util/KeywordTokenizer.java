@@ -0,0 +1,83 @@
+/**
+ * KeywordTokenizer.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A single-pass tokenizer that extracts the keywords from a text. The text is split to words
+ * on white space; the words that are shorter than two characters, contain anything else than ASCII letters
+ * or are contained in the {@link StopList} are skipped. The remaining words are returned in lower case.
+ * No intermediate strings are created for the skipped words.
+ *
+ * @author burgetr
+ */
+public class KeywordTokenizer
+{
+
+    /**
+     * Obtains all the valid keywords from a string.
+     * @param text the text to be processed
+     * @return the set of keywords
+     */
+    public static Set<String> extractKeywords(String text)
+    {
+        Set<String> ret = new HashSet<String>();
+        extractKeywords(text, ret);
+        return ret;
+    }
+
+    /**
+     * Obtains all the valid keywords from a string and adds them to a set.
+     * @param text the text to be processed
+     * @param result the set where the keywords are added
+     */
+    public static void extractKeywords(String text, Set<String> result)
+    {
+        final int len = text.length();
+        char[] buf = null;
+        int i = 0;
+        while (i < len)
+        {
+            //skip the white space
+            while (i < len && isSpace(text.charAt(i)))
+                i++;
+            //scan the word and check the characters
+            int start = i;
+            boolean valid = true;
+            while (i < len)
+            {
+                char c = text.charAt(i);
+                if (isSpace(c))
+                    break;
+                if (valid && !((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')))
+                    valid = false;
+                i++;
+            }
+            //use the word
+            int wlen = i - start;
+            if (valid && wlen > 1 && !StopList.contains(text, start, i))
+            {
+                if (buf == null || buf.length < wlen)
+                    buf = new char[Math.max(wlen, 32)];
+                for (int j = 0; j < wlen; j++)
+                {
+                    char c = text.charAt(start + j);
+                    buf[j] = (c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+                }
+                result.add(new String(buf, 0, wlen));
+            }
+        }
+    }
+
+    /**
+     * Checks for the white space characters that correspond to the {@code \s} regular expression class.
+     */
+    private static boolean isSpace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+}
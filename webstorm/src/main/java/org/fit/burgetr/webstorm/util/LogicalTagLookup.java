@@ -8,13 +8,16 @@ package org.fit.burgetr.webstorm.util;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
-import java.util.regex.Pattern;
 
 import org.burgetr.segm.AreaNode;
 import org.burgetr.segm.BoxNode;
@@ -35,8 +38,31 @@ import org.xml.sax.SAXException;
  */
 public class LogicalTagLookup
 {
-    protected Pattern wordExpr = Pattern.compile("[A-Za-z]+");
     protected LogicalTree ltree;
+    /** All the tree nodes in the document order */
+    protected LogicalNode[] nodes;
+    /** Parent node index for each node (-1 for the root) */
+    protected int[] parents;
+    /** Leaf text of each node */
+    protected String[] leafTexts;
+    /** Node index for each node */
+    protected Map<LogicalNode, Integer> nodeIndex;
+    /** Already looked up tags */
+    protected Map<Tag, List<LogicalNode>> tagIndex;
+    /** Surnames already extracted from the individual nodes */
+    protected Map<LogicalNode, Set<String>> surnames;
+    /** Cache of the recognized names shared among the pages (optional) */
+    protected NameCache nameCache;
+    /** Keywords of the leaf text of each node (computed on demand) */
+    protected Set<String>[] leafKeywords;
+    /** Keywords of the leaf texts of each node and all its ancestors (computed on demand) */
+    protected Set<String>[] chainKeywords;
+    /** Fingerprints of the leaf texts of each node and all its ancestors (computed on demand) */
+    protected long[] chainPrints;
+    /** Relations discovered in the previous version of the page, identified by the block fingerprints (optional) */
+    protected Map<Long, BlockRelations> previousBlocks;
+    /** Relations discovered in the name blocks of this page by the last analysis */
+    protected Map<Long, BlockRelations> blocks;
     
     /**
      * Creates a lookup on a logical tree. 
@@ -45,34 +71,187 @@ public class LogicalTagLookup
     public LogicalTagLookup(LogicalTree ltree)
     {
         this.ltree = ltree;
+        this.tagIndex = new HashMap<Tag, List<LogicalNode>>();
+        this.surnames = new IdentityHashMap<LogicalNode, Set<String>>();
+        indexTree();
     }
     
     /**
-     * Finds all logical nodes that correspond to the given tag.
+     * Sets the cache used for the name recognition.
+     * @param nameCache the cache to be used or {@code null} for recognizing all the names directly
+     */
+    public void setNameCache(NameCache nameCache)
+    {
+        this.nameCache = nameCache;
+    }
+    
+    /**
+     * Sets the relations discovered in a previous version of the same page. The name blocks that have not
+     * changed since then are not analyzed again and their stored relations are used instead.
+     * @param previousBlocks the relations discovered in the previous version of the page as
+     * obtained from {@link #getBlocks()} or {@code null}
+     */
+    public void setPreviousBlocks(Map<Long, BlockRelations> previousBlocks)
+    {
+        this.previousBlocks = previousBlocks;
+    }
+    
+    /**
+     * Obtains the relations discovered in the individual name blocks by the last call of {@link #analyze(Tagger)}.
+     * @return a map that assigns the relations to the block fingerprints
+     */
+    public Map<Long, BlockRelations> getBlocks()
+    {
+        return blocks;
+    }
+    
+    /**
+     * Finds all logical nodes that correspond to the given tag. The result is computed from the
+     * node index and stored for the subsequent lookups of the same tag.
      * @param tag The tag to be found
      * @return List of corresponding logical nodes
      */
     public List<LogicalNode> lookupTag(Tag tag)
     {
-        Vector<LogicalNode> ret = new Vector<LogicalNode>();
-        recursiveLookupTag(ltree.getRoot(), tag, ret);
+        List<LogicalNode> ret = tagIndex.get(tag);
+        if (ret == null)
+        {
+            List<LogicalNode> found = new ArrayList<LogicalNode>();
+            for (LogicalNode node : nodes)
+            {
+                if (node.hasTag(tag))
+                    found.add(node);
+            }
+            ret = Collections.unmodifiableList(found);
+            tagIndex.put(tag, ret);
+        }
         return ret;
     }
 
     /**
-     * Recursively finds all logical nodes that correspond to the given tag starting with the given root node.
-     * @param root The root node
-     * @param tag The tag to be found
-     * @param result List of corresponding logical nodes
+     * Creates the node index in a single non-recursive traversal of the tree. The nodes are stored
+     * in the document order together with their parent indices and leaf texts so that the subsequent
+     * queries don't have to walk the tree again.
      */
-    protected void recursiveLookupTag(LogicalNode root, Tag tag, Vector<LogicalNode> result)
+    protected void indexTree()
     {
-        if (root.hasTag(tag))
-            result.add(root);
-        for (int i = 0; i < root.getChildCount(); i++)
-            recursiveLookupTag(root.getChildNode(i), tag, result);
+        List<LogicalNode> nodeList = new ArrayList<LogicalNode>();
+        List<Integer> parentList = new ArrayList<Integer>();
+        nodeIndex = new IdentityHashMap<LogicalNode, Integer>();
+        
+        ArrayDeque<LogicalNode> stack = new ArrayDeque<LogicalNode>();
+        ArrayDeque<Integer> parentStack = new ArrayDeque<Integer>();
+        LogicalNode root = ltree.getRoot();
+        if (root != null)
+        {
+            stack.push(root);
+            parentStack.push(-1);
+        }
+        while (!stack.isEmpty())
+        {
+            LogicalNode node = stack.pop();
+            int parent = parentStack.pop();
+            int index = nodeList.size();
+            nodeList.add(node);
+            parentList.add(parent);
+            nodeIndex.put(node, index);
+            //push the children in the reverse order so that they are processed in the document order
+            for (int i = node.getChildCount() - 1; i >= 0; i--)
+            {
+                stack.push(node.getChildNode(i));
+                parentStack.push(index);
+            }
+        }
+        
+        nodes = nodeList.toArray(new LogicalNode[nodeList.size()]);
+        parents = new int[nodes.length];
+        leafTexts = new String[nodes.length];
+        leafKeywords = createSetArray(nodes.length);
+        chainKeywords = createSetArray(nodes.length);
+        for (int i = 0; i < nodes.length; i++)
+        {
+            parents[i] = parentList.get(i);
+            leafTexts[i] = nodes[i].getLeafText();
+        }
     }
 
+    /**
+     * Computes the fingerprint of a name block: the text of the name node and the leaf texts of all its ancestors,
+     * i.e. all the text the relations are extracted from.
+     * @param node the name node
+     * @return the fingerprint
+     */
+    protected long getBlockPrint(LogicalNode node)
+    {
+        if (chainPrints == null)
+        {
+            //the parents always precede their children in the node array
+            chainPrints = new long[nodes.length];
+            for (int i = 0; i < nodes.length; i++)
+            {
+                long above = (parents[i] == -1) ? Fingerprint.OFFSET : chainPrints[parents[i]];
+                String text = leafTexts[i];
+                chainPrints[i] = (text == null || text.isEmpty()) ? above : Fingerprint.mix(above, Fingerprint.of(text));
+            }
+        }
+        int parent = parents[nodeIndex.get(node)];
+        long above = (parent == -1) ? Fingerprint.OFFSET : chainPrints[parent];
+        return Fingerprint.mix(above, Fingerprint.of(node.getText()));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Set<String>[] createSetArray(int length)
+    {
+        return new Set[length];
+    }
+    
+    //=====================================================================================================
+    // Complete analysis
+    //=====================================================================================================
+    
+    /**
+     * Analyzes the whole tree in a single pass. Each name node is tagged only once and both the
+     * name - keyword and the name - image relationships are discovered together.
+     * @param tagger The name tagger to be used for recoginizing the names
+     * @return The analysis result
+     */
+    public PageAnalysis analyze(Tagger tagger)
+    {
+        PageAnalysis ret = new PageAnalysis();
+        blocks = new HashMap<Long, BlockRelations>();
+        
+        List<LogicalNode> nameNodes = lookupTag(tagger.getTag());
+        for (LogicalNode node : nameNodes)
+        {
+            //use the previous results for the unchanged blocks
+            Long key = getBlockPrint(node);
+            BlockRelations rel = (previousBlocks == null) ? null : previousBlocks.get(key);
+            if (rel == null)
+            {
+                Set<String> names = getSurnames(node, tagger);
+                Set<String> keywords = names.isEmpty() ? Collections.<String>emptySet() : findRelatedKeywordsForNode(node);
+                rel = new BlockRelations(names, keywords);
+            }
+            blocks.put(key, rel);
+            
+            Set<String> names = rel.getNames();
+            if (!names.isEmpty())
+            {
+                Set<String> keywords = rel.getKeywords();
+                AreaNode container = findContainerArea(node, 100, 20);
+                Set<URL> urls = findImageUrls(container);
+                
+                for (String name : names)
+                {
+                    ret.addKeywords(name, keywords);
+                    ret.addImages(name, urls);
+                }
+            }
+        }
+        
+        return ret;
+    }
+    
     //=====================================================================================================
     // Keyword extraction
     //=====================================================================================================
@@ -89,14 +268,13 @@ public class LogicalTagLookup
         List<LogicalNode> rel = lookupTag(tagger.getTag());
         for (LogicalNode node : rel)
         {
-            String text = node.getText();
-            Set<String> names = extractSurnames(text, tagger);
+            Set<String> names = getSurnames(node, tagger);
             List<String> related = findRelatedTextForNode(node);
             for (String name : names)
             {
                 List<String> nameStrings = ret.get(name);
                 if (nameStrings == null)
-                    ret.put(name, related);
+                    ret.put(name, new ArrayList<String>(related));
                 else
                     nameStrings.addAll(related);
             }
@@ -125,6 +303,24 @@ public class LogicalTagLookup
         return ret;
     }
     
+    /**
+     * Obtains the last names contained in the text of a logical node. The names are extracted
+     * only once for each node, the subsequent calls use the stored result.
+     * @param node The logical node to be processed.
+     * @param tagger The tagger to be used for recognizing the names.
+     * @return A set of surnames found in the node text.
+     */
+    protected Set<String> getSurnames(LogicalNode node, Tagger tagger)
+    {
+        Set<String> ret = surnames.get(node);
+        if (ret == null)
+        {
+            ret = extractSurnames(node.getText(), tagger);
+            surnames.put(node, ret);
+        }
+        return ret;
+    }
+    
     /**
      * Extracts all last names from the given string using a tagger.
      * @param text The text string to be processed (containing the names).
@@ -133,18 +329,10 @@ public class LogicalTagLookup
      */
     protected Set<String> extractSurnames(String text, Tagger tagger)
     {
-        Vector<String> allNames = tagger.extract(text);
-        
-        //extract surnames, unify
-        Set<String> names = new HashSet<String>();
-        for (String name : allNames)
-        {
-            String[] parts = name.toLowerCase().split("\\s+");
-            if (parts.length > 0)
-                names.add(parts[parts.length - 1]); //take last names only
-        }
-        
-        return names;
+        if (nameCache != null)
+            return nameCache.getSurnames(text, tagger);
+        else
+            return NameExtractor.extractSurnames(text, tagger);
     }
     
     /**
@@ -154,45 +342,106 @@ public class LogicalTagLookup
      */
     protected List<String> findRelatedTextForNode(LogicalNode node)
     {
-        Vector<String> ret = new Vector<String>();
+        List<String> ret = new ArrayList<String>();
         
         //Include the text of the node itself
         ret.add(node.getText());
         
         //Include all the paren nodes
-        LogicalNode pp = node.getParentNode();
-        while (pp != null)
+        int pp = parents[nodeIndex.get(node)];
+        while (pp != -1)
         {
-            String pt = pp.getLeafText();
+            String pt = leafTexts[pp];
             if (pt != null && !pt.isEmpty())
                 ret.add(pt);
-            pp = pp.getParentNode();
+            pp = parents[pp];
         }
         return ret;
     }
     
     /**
-     * Obtains all the valid keywords from a string. Removes the stop words and words containing strange characters.
-     * @param text
-     * @return
+     * Finds the keywords related to the given logical node, i.e. the keywords contained in the text
+     * of the node itself and in the leaf texts of all its ancestors. This corresponds to calling
+     * {@link #extractKeywords(String)} on all the strings returned by {@link #findRelatedTextForNode(LogicalNode)}
+     * but the keywords of the ancestors are only extracted once for the whole tree.
+     * @param node the logical node
+     * @return the set of the related keywords
      */
-    protected Set<String> extractKeywords(String text)
+    protected Set<String> findRelatedKeywordsForNode(LogicalNode node)
     {
-        HashSet<String> ret = new HashSet<String>();
-        
-        String[] allWords = text.toLowerCase().split("\\s+");
-        for (String word : allWords)
+        Set<String> ret = new HashSet<String>(extractKeywords(node.getText()));
+        int parent = parents[nodeIndex.get(node)];
+        if (parent != -1)
+            ret.addAll(getChainKeywords(parent));
+        return ret;
+    }
+    
+    /**
+     * Obtains the keywords of the leaf text of a node.
+     * @param index the node index
+     * @return an unmodifiable set of keywords
+     */
+    protected Set<String> getLeafKeywords(int index)
+    {
+        Set<String> ret = leafKeywords[index];
+        if (ret == null)
         {
-            if (isValidWord(word) && !StopList.contains(word))
-                ret.add(word);
+            String text = leafTexts[index];
+            if (text != null && !text.isEmpty())
+                ret = Collections.unmodifiableSet(extractKeywords(text));
+            else
+                ret = Collections.emptySet();
+            leafKeywords[index] = ret;
         }
-        
         return ret;
     }
     
-    protected boolean isValidWord(String s)
+    /**
+     * Obtains the keywords of the leaf texts of a node and all its ancestors. The sets are computed
+     * only once for each node and shared by all its descendants.
+     * @param index the node index
+     * @return an unmodifiable set of keywords
+     */
+    protected Set<String> getChainKeywords(int index)
+    {
+        if (chainKeywords[index] == null)
+        {
+            //find the nearest ancestor with the keywords already computed
+            List<Integer> path = new ArrayList<Integer>();
+            int cur = index;
+            while (cur != -1 && chainKeywords[cur] == null)
+            {
+                path.add(cur);
+                cur = parents[cur];
+            }
+            //compute the missing sets top-down
+            Set<String> above = (cur == -1) ? Collections.<String>emptySet() : chainKeywords[cur];
+            for (int i = path.size() - 1; i >= 0; i--)
+            {
+                int pi = path.get(i);
+                Set<String> own = getLeafKeywords(pi);
+                if (own.isEmpty() || above.containsAll(own))
+                    chainKeywords[pi] = above;
+                else
+                {
+                    Set<String> union = new HashSet<String>(above);
+                    union.addAll(own);
+                    chainKeywords[pi] = Collections.unmodifiableSet(union);
+                }
+                above = chainKeywords[pi];
+            }
+        }
+        return chainKeywords[index];
+    }
+    
+    /**
+     * Obtains all the valid keywords from a string. Removes the stop words and words containing strange characters.
+     * @param text
+     * @return
+     */
+    protected Set<String> extractKeywords(String text)
     {
-        return s.length() > 1 && wordExpr.matcher(s).matches();
+        return KeywordTokenizer.extractKeywords(text);
     }
     
     //=====================================================================================================
@@ -262,7 +511,7 @@ public class LogicalTagLookup
         
         for (LogicalNode node : nameNodes)
         {
-            Set<String> names = extractSurnames(node.getText(), tagger);
+            Set<String> names = getSurnames(node, tagger);
             AreaNode container = findContainerArea(node, 100, 20);
             Set<URL> urls = findImageUrls(container);
             
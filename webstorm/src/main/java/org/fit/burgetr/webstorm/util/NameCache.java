@@ -0,0 +1,121 @@
+/**
+ * NameCache.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.burgetr.segm.tagging.taggers.Tagger;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * A bounded cache of the surnames recognized in text strings. The texts are identified by their fingerprints
+ * so that the cache does not keep the texts themselves. The instances are thread-safe.
+ *
+ * @author burgetr
+ */
+public class NameCache
+{
+    private Map<Long, Set<String>> cache;
+    private AtomicLong hits;
+    private AtomicLong misses;
+
+    /**
+     * Creates a cache.
+     * @param maxSize the maximal number of entries
+     */
+    public NameCache(final int maxSize)
+    {
+        cache = new LinkedHashMap<Long, Set<String>>(1024, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Set<String>> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+    }
+
+    /**
+     * Obtains the surnames contained in a text. The tagger is only used when the text is not in the cache.
+     * @param text The text string to be processed (containing the names).
+     * @param tagger The tagger to be used for recognizing the names.
+     * @return An unmodifiable set of surnames found in the text.
+     */
+    public Set<String> getSurnames(String text, Tagger tagger)
+    {
+        Long key = Fingerprint.mix(Fingerprint.of(text), text.length());
+        Set<String> ret;
+        synchronized (cache)
+        {
+            ret = cache.get(key);
+        }
+        if (ret == null)
+        {
+            misses.incrementAndGet();
+            ret = Collections.unmodifiableSet(NameExtractor.extractSurnames(text, tagger));
+            synchronized (cache)
+            {
+                cache.put(key, ret);
+            }
+        }
+        else
+            hits.incrementAndGet();
+        return ret;
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public int size()
+    {
+        synchronized (cache)
+        {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Creates a metric that reports the cache hits, misses and the hit rate for each time interval.
+     * @return the new metric
+     */
+    public IMetric createMetric()
+    {
+        return new IMetric() {
+            private long lastHits = 0;
+            private long lastMisses = 0;
+
+            public Object getValueAndReset()
+            {
+                long h = getHits();
+                long m = getMisses();
+                long dh = h - lastHits;
+                long dm = m - lastMisses;
+                lastHits = h;
+                lastMisses = m;
+                Map<String, Object> ret = new HashMap<String, Object>();
+                ret.put("hits", dh);
+                ret.put("misses", dm);
+                ret.put("hitRate", (dh + dm > 0) ? (double) dh / (dh + dm) : 0.0);
+                ret.put("size", size());
+                return ret;
+            }
+        };
+    }
+
+}
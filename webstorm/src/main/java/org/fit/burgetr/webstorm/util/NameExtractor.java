@@ -0,0 +1,41 @@
+/**
+ * NameExtractor.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Vector;
+
+import org.burgetr.segm.tagging.taggers.Tagger;
+
+/**
+ * Extracts the person surnames from text strings using a name tagger.
+ * @author burgetr
+ */
+public class NameExtractor
+{
+
+    /**
+     * Extracts all last names from the given string using a tagger.
+     * @param text The text string to be processed (containing the names).
+     * @param tagger The tagger to be used for recognizing the names.
+     * @return A set of surnames found in the text.
+     */
+    public static Set<String> extractSurnames(String text, Tagger tagger)
+    {
+        Vector<String> allNames = tagger.extract(text);
+        
+        //extract surnames, unify
+        Set<String> names = new HashSet<String>();
+        for (String name : allNames)
+        {
+            String[] parts = name.toLowerCase().split("\\s+");
+            if (parts.length > 0)
+                names.add(parts[parts.length - 1]); //take last names only
+        }
+        
+        return names;
+    }
+    
+}
@@ -0,0 +1,62 @@
+/**
+ * NamePrefilter.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+/**
+ * A cheap check whether a plain text may contain a person name. A person name is expected to consist
+ * of at least two adjacent capitalized words (e.g. "John Smith") or an initial followed by a capitalized word
+ * (e.g. "J. Smith"). The check never runs the name recognition; it only finds the texts that certainly
+ * contain no names so that they need not be analyzed further.
+ *
+ * @author burgetr
+ */
+public class NamePrefilter
+{
+
+    /**
+     * Checks whether the text contains a name candidate.
+     * @param text the plain text
+     * @return {@code false} when the text contains no name candidate
+     */
+    public static boolean containsCandidate(CharSequence text)
+    {
+        final int len = text.length();
+        boolean prevCapitalized = false;
+        int i = 0;
+        while (i < len)
+        {
+            //skip the separators, only whitespace keeps the words adjacent
+            boolean adjacent = true;
+            while (i < len && !Character.isLetter(text.charAt(i)))
+            {
+                if (!Character.isWhitespace(text.charAt(i)))
+                    adjacent = false;
+                i++;
+            }
+            if (i >= len)
+                break;
+            if (!adjacent)
+                prevCapitalized = false;
+            //scan a word
+            int start = i;
+            boolean lower = false;
+            while (i < len && (Character.isLetter(text.charAt(i)) || text.charAt(i) == '-' || text.charAt(i) == '\''))
+            {
+                if (Character.isLowerCase(text.charAt(i)))
+                    lower = true;
+                i++;
+            }
+            boolean upperStart = Character.isUpperCase(text.charAt(start));
+            boolean initial = upperStart && i - start == 1 && i < len && text.charAt(i) == '.';
+            if (initial)
+                i++; //the dot of an initial is not a separator
+            boolean capitalized = upperStart && (lower || initial);
+            if (capitalized && prevCapitalized)
+                return true;
+            prevCapitalized = capitalized;
+        }
+        return false;
+    }
+
+}
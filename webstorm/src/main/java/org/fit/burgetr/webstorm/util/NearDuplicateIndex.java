@@ -0,0 +1,180 @@
+/**
+ * NearDuplicateIndex.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded in-memory multi-index hash table of the perceptual image hashes used for finding the near-duplicate
+ * images. The 64-bit hashes are split to maxDistance + 1 chunks and each chunk is indexed in a separate table;
+ * two hashes within the given Hamming distance share at least one chunk. When the capacity is exceeded, the least
+ * recently matched images are forgotten. The instances are not thread-safe.
+ *
+ * @author burgetr
+ */
+public class NearDuplicateIndex
+{
+    private int maxDistance;
+    private int[] chunkStart;
+    private int[] chunkBits;
+    private List<Map<Long, List<Item>>> tables;
+    /** The indexed hashes in the order of the last match */
+    private Map<String, Long> entries;
+
+    /**
+     * Creates an empty index.
+     * @param maxDistance the maximal Hamming distance of the near-duplicate hashes
+     * @param maxEntries the maximal number of indexed images
+     */
+    public NearDuplicateIndex(int maxDistance, final int maxEntries)
+    {
+        if (maxDistance < 0 || maxDistance > 15)
+            throw new IllegalArgumentException("Unsupported distance " + maxDistance);
+        this.maxDistance = maxDistance;
+        int chunks = maxDistance + 1;
+        chunkStart = new int[chunks];
+        chunkBits = new int[chunks];
+        tables = new ArrayList<Map<Long, List<Item>>>(chunks);
+        int start = 0;
+        for (int i = 0; i < chunks; i++)
+        {
+            chunkStart[i] = start;
+            chunkBits[i] = (64 - start) / (chunks - i);
+            start += chunkBits[i];
+            tables.add(new HashMap<Long, List<Item>>());
+        }
+        entries = new LinkedHashMap<String, Long>(1024, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+            {
+                if (size() > maxEntries)
+                {
+                    removeFromTables(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                else
+                    return false;
+            }
+        };
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Finds the closest near-duplicate image. Only the returned image is marked as recently matched.
+     * @param hash the perceptual hash of the image
+     * @return the identifier of the closest indexed image within the maximal distance or {@code null} when there is none
+     */
+    public String find(long hash)
+    {
+        String best = null;
+        int bestDistance = maxDistance + 1;
+        for (int i = 0; i < tables.size(); i++)
+        {
+            List<Item> bucket = tables.get(i).get(chunk(hash, i));
+            if (bucket != null)
+            {
+                //the candidates carry their hashes so that the access order is not changed
+                for (Item item : bucket)
+                {
+                    int dist = PerceptualHash.distance(hash, item.hash);
+                    if (dist < bestDistance)
+                    {
+                        best = item.id;
+                        bestDistance = dist;
+                    }
+                }
+            }
+        }
+        if (best != null)
+            entries.get(best); //update the access order
+        return best;
+    }
+
+    /**
+     * Adds an image to the index.
+     * @param hash the perceptual hash of the image
+     * @param id the image identifier
+     */
+    public void add(long hash, String id)
+    {
+        remove(id);
+        Item item = new Item(id, hash);
+        for (int i = 0; i < tables.size(); i++)
+        {
+            Long key = chunk(hash, i);
+            List<Item> bucket = tables.get(i).get(key);
+            if (bucket == null)
+            {
+                bucket = new ArrayList<Item>(2);
+                tables.get(i).put(key, bucket);
+            }
+            bucket.add(item);
+        }
+        entries.put(id, hash);
+    }
+
+    /**
+     * Removes an image from the index.
+     * @param id the image identifier
+     */
+    public void remove(String id)
+    {
+        Long hash = entries.remove(id);
+        if (hash != null)
+            removeFromTables(id, hash);
+    }
+
+    private void removeFromTables(String id, long hash)
+    {
+        for (int i = 0; i < tables.size(); i++)
+        {
+            Long key = chunk(hash, i);
+            List<Item> bucket = tables.get(i).get(key);
+            if (bucket != null)
+            {
+                for (int j = 0; j < bucket.size(); j++)
+                {
+                    if (bucket.get(j).id.equals(id))
+                    {
+                        bucket.remove(j);
+                        break;
+                    }
+                }
+                if (bucket.isEmpty())
+                    tables.get(i).remove(key);
+            }
+        }
+    }
+
+    private long chunk(long hash, int i)
+    {
+        long mask = (chunkBits[i] == 64) ? -1L : (1L << chunkBits[i]) - 1;
+        return (hash >>> chunkStart[i]) & mask;
+    }
+
+    /**
+     * An indexed image.
+     */
+    private static class Item
+    {
+        public String id;
+        public long hash;
+
+        public Item(String id, long hash)
+        {
+            this.id = id;
+            this.hash = hash;
+        }
+    }
+
+}
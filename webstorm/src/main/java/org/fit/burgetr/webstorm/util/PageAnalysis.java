@@ -0,0 +1,141 @@
+/**
+ * PageAnalysis.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of a single analysis pass over a logical tree: the name - keyword and the name - image
+ * relationships discovered in the page.
+ * @author burgetr
+ */
+public class PageAnalysis
+{
+    private Map<String, Set<String>> keywords;
+    private Map<String, Map<String, Integer>> keywordCounts;
+    private Map<String, Set<URL>> images;
+    private boolean partial;
+
+    public PageAnalysis()
+    {
+        keywords = new HashMap<String, Set<String>>();
+        keywordCounts = new HashMap<String, Map<String, Integer>>();
+        images = new HashMap<String, Set<URL>>();
+    }
+
+    /**
+     * Obtains the name - keywords relationships.
+     * @return A map assigning the related keywords to surnames
+     */
+    public Map<String, Set<String>> getKeywords()
+    {
+        return keywords;
+    }
+
+    /**
+     * Obtains the number of occurrences of a name whose related keywords included the given keyword.
+     * @param name the surname
+     * @param keyword the keyword
+     * @return the number of occurrences or 0 when the keyword is not related to the name
+     */
+    public int getKeywordCount(String name, String keyword)
+    {
+        Map<String, Integer> counts = keywordCounts.get(name);
+        if (counts == null)
+            return 0;
+        Integer cnt = counts.get(keyword);
+        return (cnt == null) ? 0 : cnt;
+    }
+
+    /**
+     * Obtains the name - image relationships.
+     * @return A map assigning the related image urls to surnames
+     */
+    public Map<String, Set<URL>> getImages()
+    {
+        return images;
+    }
+
+    /**
+     * Checks whether the result is partial, i.e. it has not been obtained by the complete analysis of the page
+     * (e.g. the text-only analysis used when the time limit has been exceeded).
+     * @return {@code true} for a partial result
+     */
+    public boolean isPartial()
+    {
+        return partial;
+    }
+
+    public void setPartial(boolean partial)
+    {
+        this.partial = partial;
+    }
+
+    /**
+     * Adds keywords related to an occurrence of a name.
+     * @param name the surname
+     * @param words the keywords to be added
+     */
+    public void addKeywords(String name, Set<String> words)
+    {
+        Set<String> nameWords = keywords.get(name);
+        Map<String, Integer> counts = keywordCounts.get(name);
+        if (nameWords == null)
+        {
+            nameWords = new HashSet<String>();
+            keywords.put(name, nameWords);
+            counts = new HashMap<String, Integer>();
+            keywordCounts.put(name, counts);
+        }
+        for (String word : words)
+        {
+            nameWords.add(word);
+            Integer cnt = counts.get(word);
+            counts.put(word, (cnt == null) ? 1 : cnt + 1);
+        }
+    }
+
+    /**
+     * Adds a keyword related to the given number of occurrences of a name.
+     * @param name the surname
+     * @param word the keyword
+     * @param count the number of the name occurrences
+     */
+    public void addKeyword(String name, String word, int count)
+    {
+        Set<String> nameWords = keywords.get(name);
+        Map<String, Integer> counts = keywordCounts.get(name);
+        if (nameWords == null)
+        {
+            nameWords = new HashSet<String>();
+            keywords.put(name, nameWords);
+            counts = new HashMap<String, Integer>();
+            keywordCounts.put(name, counts);
+        }
+        nameWords.add(word);
+        Integer cnt = counts.get(word);
+        counts.put(word, (cnt == null) ? count : cnt + count);
+    }
+
+    /**
+     * Adds images related to a name.
+     * @param name the surname
+     * @param urls the image urls to be added
+     */
+    public void addImages(String name, Set<URL> urls)
+    {
+        Set<URL> nameUrls = images.get(name);
+        if (nameUrls == null)
+        {
+            nameUrls = new HashSet<URL>();
+            images.put(name, nameUrls);
+        }
+        nameUrls.addAll(urls);
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * PerceptualHash.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A 64-bit difference hash (dHash) of an image. The image is reduced to 9x8 gray levels by averaging
+ * and each bit says whether a cell is brighter than its right neighbour. Resized and recompressed copies
+ * of an image have the same or a very similar hash; the similarity is measured by the Hamming distance.
+ *
+ * @author burgetr
+ */
+public class PerceptualHash
+{
+    private static final int COLS = 9;
+    private static final int ROWS = 8;
+    /** Minimal number of both the set and the unset bits of a hash usable for finding the near-duplicates */
+    public static final int MIN_BITS = 8;
+
+    /**
+     * Computes the hash of an image.
+     * @param image the image
+     * @return the hash
+     */
+    public static long dHash(BufferedImage image)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] rgb = image.getRGB(0, 0, width, height, null, 0, width);
+        
+        //average the luminance in the cells
+        double[] sum = new double[COLS * ROWS];
+        int[] cnt = new int[COLS * ROWS];
+        for (int y = 0; y < height; y++)
+        {
+            int row = y * ROWS / height;
+            for (int x = 0; x < width; x++)
+            {
+                int col = x * COLS / width;
+                int p = rgb[y * width + x];
+                int lum = (((p >> 16) & 0xff) * 299 + ((p >> 8) & 0xff) * 587 + (p & 0xff) * 114) / 1000;
+                sum[row * COLS + col] += lum;
+                cnt[row * COLS + col]++;
+            }
+        }
+        
+        long ret = 0;
+        for (int row = 0; row < ROWS; row++)
+        {
+            for (int col = 0; col < COLS - 1; col++)
+            {
+                int i = row * COLS + col;
+                double left = (cnt[i] == 0) ? 0 : sum[i] / cnt[i];
+                double right = (cnt[i + 1] == 0) ? 0 : sum[i + 1] / cnt[i + 1];
+                ret = (ret << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Checks whether a hash carries enough information for finding the near-duplicates. Blank, flat or smooth
+     * gradient images have (almost) all the bits equal; such images would be all considered near-duplicates.
+     * @param hash the hash
+     * @return {@code true} when the hash may be used for finding the near-duplicates
+     */
+    public static boolean isDistinctive(long hash)
+    {
+        int bits = Long.bitCount(hash);
+        return bits >= MIN_BITS && bits <= 64 - MIN_BITS;
+    }
+
+    /**
+     * Computes the Hamming distance of two hashes.
+     * @param h1 the first hash
+     * @param h2 the second hash
+     * @return the number of different bits
+     */
+    public static int distance(long h1, long h2)
+    {
+        return Long.bitCount(h1 ^ h2);
+    }
+
+    /**
+     * Encodes a hash to bytes (big endian).
+     */
+    public static byte[] toBytes(long hash)
+    {
+        byte[] ret = new byte[8];
+        for (int i = 7; i >= 0; i--)
+        {
+            ret[i] = (byte) hash;
+            hash >>>= 8;
+        }
+        return ret;
+    }
+
+    /**
+     * Decodes a hash from bytes (big endian).
+     */
+    public static long fromBytes(byte[] data)
+    {
+        long ret = 0;
+        for (int i = 0; i < 8; i++)
+            ret = (ret << 8) | (data[i] & 0xff);
+        return ret;
+    }
+
+}
@@ -0,0 +1,260 @@
+/**
+ * SiteTemplates.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+/**
+ * Template models of the individual web sites learned from the recently processed pages. The DOM blocks
+ * are identified by the fingerprints of their contents; a block that has already appeared on a given
+ * number of other pages of the same site is considered to be a part of the site template (header, footer,
+ * sidebar, etc.) and it may be removed from the analyzed page. The pages are distinguished by their urls without
+ * the query string so that the same page reached with different tracking parameters is counted once; a block
+ * that holds most of the page text is never removed. The instances are thread-safe.
+ *
+ * @author burgetr
+ */
+public class SiteTemplates
+{
+    /** Maximal number of sites kept */
+    public static final int MAX_SITES = 200;
+    /** Maximal number of blocks kept per site */
+    public static final int MAX_BLOCKS = 2000;
+    /** Maximal number of page urls remembered per site */
+    public static final int MAX_PAGES = 500;
+    /** Minimal text length of a block */
+    public static final int MIN_TEXT_LENGTH = 20;
+    /** Maximal share of the page text in a removed block */
+    public static final double MAX_TEXT_SHARE = 0.5;
+
+    private int minPages;
+    private Map<String, SiteTemplate> sites;
+
+    /**
+     * Creates the template models.
+     * @param minPages the number of different pages where a block must appear before it is considered as a template block
+     */
+    public SiteTemplates(int minPages)
+    {
+        this.minPages = minPages;
+        this.sites = new LinkedHashMap<String, SiteTemplate>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SiteTemplate> eldest)
+            {
+                return size() > MAX_SITES;
+            }
+        };
+    }
+
+    /**
+     * Removes the blocks recognized as template blocks from the page body and updates the site model
+     * with the page blocks.
+     * @param site the site identification (host name)
+     * @param pageUrl the page url, it is normalized before it is used for distinguishing the pages
+     * @param body the page body element, it is modified in place
+     * @return the number of removed blocks
+     */
+    public int removeTemplateBlocks(String site, String pageUrl, Element body)
+    {
+        //compute the block fingerprints
+        final Map<Element, long[]> blocks = computeFingerprints(body);
+        Set<Long> pageBlocks = new HashSet<Long>();
+        for (long[] block : blocks.values())
+        {
+            if (block[1] >= MIN_TEXT_LENGTH)
+                pageBlocks.add(block[0]);
+        }
+
+        //find the template blocks
+        SiteTemplate template = getTemplate(site);
+        Set<Long> templateBlocks;
+        synchronized (template)
+        {
+            templateBlocks = template.findTemplateBlocks(pageBlocks, minPages);
+            template.learn(normalizeUrl(pageUrl), pageBlocks);
+        }
+
+        //remove the outermost template blocks that do not hold the main part of the text
+        int cnt = 0;
+        if (!templateBlocks.isEmpty())
+        {
+            long maxLength = (long) (blocks.get(body)[1] * MAX_TEXT_SHARE);
+            ArrayDeque<Element> stack = new ArrayDeque<Element>(body.children());
+            while (!stack.isEmpty())
+            {
+                Element elem = stack.pop();
+                long[] block = blocks.get(elem);
+                if (block != null && block[1] >= MIN_TEXT_LENGTH && block[1] <= maxLength && templateBlocks.contains(block[0]))
+                {
+                    elem.remove();
+                    cnt++;
+                }
+                else
+                {
+                    for (Element child : elem.children())
+                        stack.push(child);
+                }
+            }
+        }
+        return cnt;
+    }
+
+    /**
+     * Normalizes a page url for distinguishing the pages of a site: the protocol, the query string and
+     * the fragment are omitted and the host name is converted to lower case.
+     * @param pageUrl the page url
+     * @return the normalized url
+     */
+    protected static String normalizeUrl(String pageUrl)
+    {
+        try
+        {
+            URL url = new URL(pageUrl);
+            String port = (url.getPort() == -1) ? "" : ":" + url.getPort();
+            return url.getHost().toLowerCase(Locale.ENGLISH) + port + url.getPath();
+        }
+        catch (MalformedURLException e)
+        {
+            int end = pageUrl.length();
+            if (pageUrl.indexOf('?') >= 0)
+                end = pageUrl.indexOf('?');
+            if (pageUrl.indexOf('#') >= 0 && pageUrl.indexOf('#') < end)
+                end = pageUrl.indexOf('#');
+            return pageUrl.substring(0, end);
+        }
+    }
+
+    private synchronized SiteTemplate getTemplate(String site)
+    {
+        SiteTemplate ret = sites.get(site);
+        if (ret == null)
+        {
+            ret = new SiteTemplate();
+            sites.put(site, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Computes the fingerprints and the text lengths of all the elements in a single bottom-up pass.
+     * The fingerprint is computed from the element names, the text contents and the image sources.
+     * @param root the root element
+     * @return a map that assigns [fingerprint, text length] to each element
+     */
+    protected Map<Element, long[]> computeFingerprints(Element root)
+    {
+        final Map<Element, long[]> ret = new IdentityHashMap<Element, long[]>();
+        new NodeTraversor(new NodeVisitor() {
+            public void head(Node node, int depth)
+            {
+            }
+            public void tail(Node node, int depth)
+            {
+                if (node instanceof Element)
+                {
+                    Element elem = (Element) node;
+                    long h = Fingerprint.of(elem.tagName());
+                    long len = 0;
+                    if (elem.tagName().equals("img"))
+                        h = Fingerprint.mix(h, Fingerprint.of(elem.attr("src")));
+                    for (Node child : elem.childNodes())
+                    {
+                        if (child instanceof TextNode)
+                        {
+                            String text = ((TextNode) child).text().trim();
+                            if (!text.isEmpty())
+                            {
+                                h = Fingerprint.mix(h, Fingerprint.of(text));
+                                len += text.length();
+                            }
+                        }
+                        else if (child instanceof Element)
+                        {
+                            long[] sub = ret.get(child);
+                            h = Fingerprint.mix(h, sub[0]);
+                            len += sub[1];
+                        }
+                    }
+                    ret.put(elem, new long[] {h, len});
+                }
+            }
+        }).traverse(root);
+        return ret;
+    }
+
+    //===========================================================================================
+
+    /**
+     * The template model of a single site.
+     */
+    private static class SiteTemplate
+    {
+        /** Number of distinct pages where the individual blocks appeared */
+        private Map<Long, Integer> blockPages;
+        /** Fingerprints of the already learned page urls */
+        private Map<Long, Boolean> learnedPages;
+
+        public SiteTemplate()
+        {
+            blockPages = new LinkedHashMap<Long, Integer>(64, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest)
+                {
+                    return size() > MAX_BLOCKS;
+                }
+            };
+            learnedPages = new LinkedHashMap<Long, Boolean>(64, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest)
+                {
+                    return size() > MAX_PAGES;
+                }
+            };
+        }
+
+        public Set<Long> findTemplateBlocks(Set<Long> pageBlocks, int minPages)
+        {
+            Set<Long> ret = new HashSet<Long>();
+            for (Long block : pageBlocks)
+            {
+                Integer cnt = blockPages.get(block);
+                if (cnt != null && cnt >= minPages)
+                    ret.add(block);
+            }
+            return ret;
+        }
+
+        public void learn(String pageUrl, Set<Long> pageBlocks)
+        {
+            //each page is counted only once so that the repeated pages (possibly with different query strings) do not become a template
+            Long urlKey = Fingerprint.of(pageUrl);
+            if (learnedPages.put(urlKey, Boolean.TRUE) == null)
+            {
+                for (Long block : pageBlocks)
+                {
+                    Integer cnt = blockPages.get(block);
+                    blockPages.put(block, (cnt == null) ? 1 : cnt + 1);
+                }
+            }
+        }
+    }
+
+}
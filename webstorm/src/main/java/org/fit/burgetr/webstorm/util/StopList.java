@@ -99,10 +99,18 @@ public class StopList
     
     private static HashSet<String> stopWords;
     
+    /** Number of letters in the trie alphabet */
+    private static final int ALPHABET = 26;
+    /** Trie transitions: child node index for node * ALPHABET + letter, 0 when there is no child (the root is never a child) */
+    private static int[] trie;
+    /** Nodes that terminate a stop word */
+    private static boolean[] terminal;
+    
     static {
         stopWords = new HashSet<String>(stopWordsArray.length);
         for (String word : stopWordsArray)
             stopWords.add(word);
+        buildTrie();
     }
     
     public static boolean contains(String word)
@@ -110,4 +118,78 @@ public class StopList
         return stopWords.contains(word.toLowerCase());
     }
     
+    /**
+     * Checks whether a part of a character sequence is a stop word without creating any intermediate strings.
+     * The comparison is case-insensitive. Only the stop words that consist of ASCII letters may be found
+     * this way, any other character in the checked part makes it a non-stop word.
+     * @param text the text to be checked
+     * @param start the start index of the word (inclusive)
+     * @param end the end index of the word (exclusive)
+     * @return {@code true} when the given part of the text is a stop word
+     */
+    public static boolean contains(CharSequence text, int start, int end)
+    {
+        int node = 0;
+        for (int i = start; i < end; i++)
+        {
+            int letter = letterIndex(text.charAt(i));
+            if (letter == -1)
+                return false;
+            node = trie[node * ALPHABET + letter];
+            if (node == 0)
+                return false;
+        }
+        return terminal[node];
+    }
+    
+    /**
+     * Converts an ASCII letter to its index in the trie alphabet.
+     * @param c the character
+     * @return the letter index or -1 when the character is not an ASCII letter
+     */
+    private static int letterIndex(char c)
+    {
+        if (c >= 'a' && c <= 'z')
+            return c - 'a';
+        else if (c >= 'A' && c <= 'Z')
+            return c - 'A';
+        else
+            return -1;
+    }
+    
+    private static void buildTrie()
+    {
+        //count the nodes first
+        int maxNodes = 1;
+        for (String word : stopWordsArray)
+            maxNodes += word.length();
+        int[] transitions = new int[maxNodes * ALPHABET];
+        boolean[] ends = new boolean[maxNodes];
+        int count = 1;
+        
+        for (String word : stopWordsArray)
+        {
+            boolean letters = true;
+            for (int i = 0; i < word.length() && letters; i++)
+                letters = letterIndex(word.charAt(i)) != -1;
+            if (letters)
+            {
+                int node = 0;
+                for (int i = 0; i < word.length(); i++)
+                {
+                    int pos = node * ALPHABET + letterIndex(word.charAt(i));
+                    if (transitions[pos] == 0)
+                        transitions[pos] = count++;
+                    node = transitions[pos];
+                }
+                ends[node] = true;
+            }
+        }
+        
+        trie = new int[count * ALPHABET];
+        System.arraycopy(transitions, 0, trie, 0, trie.length);
+        terminal = new boolean[count];
+        System.arraycopy(ends, 0, terminal, 0, count);
+    }
+    
 }
@@ -0,0 +1,370 @@
+/**
+ * WeightStore.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The similarity weight history of the indexed images kept outside of the index so that the indexed
+ * documents are never rewritten when the weights change. The weights of all the documents are stored
+ * in a single primitive array; each document uses a slot of {@code history} weights organized as a ring
+ * buffer with a common head, so that starting a new time window does not move any weights.
+ * Besides the weights, the store keeps the names related to a document later (by merging the near-duplicates)
+ * so that the document does not need to be rewritten either.
+ * The documents are identified by their ids (the {@code myid} field). The instances are not thread-safe.
+ *
+ * @author burgetr
+ */
+public class WeightStore
+{
+    private int history;
+    /** The ring position of the current time window */
+    private int head;
+    private float[] weights;
+    private int[] lengths;
+    private String[] ids;
+    /** The names added to the documents after indexing */
+    private String[][] names;
+    private Map<String, Integer> slots;
+    private int[] freeSlots;
+    private int freeCount;
+    private int used;
+
+    /**
+     * Creates an empty store.
+     * @param history the number of time windows kept for each document
+     */
+    public WeightStore(int history)
+    {
+        this.history = Math.max(history, 1);
+        clear();
+    }
+
+    /**
+     * Removes all the documents.
+     */
+    public void clear()
+    {
+        head = 0;
+        weights = new float[64 * history];
+        lengths = new int[64];
+        ids = new String[64];
+        names = new String[64][];
+        slots = new HashMap<String, Integer>();
+        freeSlots = new int[64];
+        freeCount = 0;
+        used = 0;
+    }
+
+    public int size()
+    {
+        return slots.size();
+    }
+
+    public boolean contains(String id)
+    {
+        return slots.containsKey(id);
+    }
+
+    /**
+     * Adds a new document with an empty weight history. Nothing happens when the document is already present.
+     * @param id the document id
+     */
+    public void add(String id)
+    {
+        if (slots.containsKey(id))
+            return;
+        int slot;
+        if (freeCount > 0)
+            slot = freeSlots[--freeCount];
+        else
+        {
+            if (used == ids.length)
+                grow();
+            slot = used++;
+        }
+        ids[slot] = id;
+        names[slot] = null;
+        lengths[slot] = 0;
+        Arrays.fill(weights, slot * history, (slot + 1) * history, 0.0f);
+        slots.put(id, slot);
+    }
+
+    /**
+     * Removes a document.
+     * @param id the document id
+     */
+    public void remove(String id)
+    {
+        Integer slot = slots.remove(id);
+        if (slot != null)
+        {
+            ids[slot] = null;
+            names[slot] = null;
+            if (freeCount == freeSlots.length)
+                freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+            freeSlots[freeCount++] = slot;
+        }
+    }
+
+    /**
+     * Adds a value to the weight of the current time window of a document.
+     * @param id the document id
+     * @param value the value to be added
+     * @return {@code false} when the document is not present in the store
+     */
+    public boolean addWeight(String id, float value)
+    {
+        Integer slot = slots.get(id);
+        if (slot == null)
+            return false;
+        weights[slot * history + head] += value;
+        if (lengths[slot] == 0)
+            lengths[slot] = 1;
+        return true;
+    }
+
+    /**
+     * Obtains the weight of the current time window of a document.
+     * @param id the document id
+     * @return the weight or {@code 0} when the document is not present
+     */
+    public float getWeight(String id)
+    {
+        Integer slot = slots.get(id);
+        if (slot == null || lengths[slot] == 0)
+            return 0.0f;
+        return weights[slot * history + head];
+    }
+
+    /**
+     * Adds names related to a document. The names already added are skipped.
+     * @param id the document id
+     * @param newNames the names to be added
+     * @return {@code false} when the document is not present in the store
+     */
+    public boolean addNames(String id, Collection<String> newNames)
+    {
+        Integer slot = slots.get(id);
+        if (slot == null)
+            return false;
+        List<String> current = getNames(id);
+        for (String name : newNames)
+        {
+            if (!current.contains(name))
+                current.add(name);
+        }
+        names[slot] = current.toArray(new String[current.size()]);
+        return true;
+    }
+
+    /**
+     * Obtains the names added to a document.
+     * @param id the document id
+     * @return the list of names, empty when no names have been added or the document is not present
+     */
+    public List<String> getNames(String id)
+    {
+        Integer slot = slots.get(id);
+        if (slot == null || names[slot] == null)
+            return new ArrayList<String>();
+        return new ArrayList<String>(Arrays.asList(names[slot]));
+    }
+
+    /**
+     * Starts a new time window for all the documents. The oldest window is forgotten when the history is full.
+     */
+    public void rollover()
+    {
+        head = (head + 1) % history;
+        for (int slot = 0; slot < used; slot++)
+        {
+            if (ids[slot] != null)
+            {
+                weights[slot * history + head] = 0.0f;
+                if (lengths[slot] < history - 1)
+                    lengths[slot]++;
+            }
+        }
+    }
+
+    /**
+     * Computes the score of a document. The recent windows have greater influence on the score.
+     * @param id the document id
+     * @return the score or {@code -1} when the document is not present
+     */
+    public float getScore(String id)
+    {
+        Integer slot = slots.get(id);
+        if (slot == null)
+            return -1.0f;
+        return score(slot);
+    }
+
+    /**
+     * Sorts the document ids by their scores.
+     * @return the list of document ids, the highest scores first
+     */
+    public List<String> rank()
+    {
+        final Map<String, Float> scores = new HashMap<String, Float>(slots.size() * 2);
+        for (int slot = 0; slot < used; slot++)
+        {
+            if (ids[slot] != null)
+                scores.put(ids[slot], score(slot));
+        }
+        List<String> ret = new ArrayList<String>(scores.keySet());
+        Collections.sort(ret, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2)
+            {
+                return scores.get(o2).compareTo(scores.get(o1));
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Writes the store to a file. The file is replaced atomically.
+     * @param file the destination file
+     * @param deploymentId the identifier of the current deployment
+     * @throws IOException
+     */
+    public void save(File file, String deploymentId) throws IOException
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try
+        {
+            out.writeUTF(deploymentId);
+            out.writeInt(history);
+            out.writeInt(head);
+            out.writeInt(slots.size());
+            for (int slot = 0; slot < used; slot++)
+            {
+                if (ids[slot] != null)
+                {
+                    out.writeUTF(ids[slot]);
+                    out.writeInt(lengths[slot]);
+                    for (int i = 0; i < history; i++)
+                        out.writeFloat(weights[slot * history + i]);
+                    String[] docNames = (names[slot] == null) ? new String[0] : names[slot];
+                    out.writeInt(docNames.length);
+                    for (String name : docNames)
+                        out.writeUTF(name);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!tmp.renameTo(file))
+        {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /**
+     * Replaces the store contents with the contents of a file written by the same deployment with the same history.
+     * A damaged file is not used and the store is left empty.
+     * @param file the source file
+     * @param deploymentId the identifier of the current deployment
+     * @return {@code true} when the store has been loaded, {@code false} when the file does not exist,
+     * it belongs to another deployment or it is damaged
+     * @throws IOException
+     */
+    public boolean load(File file, String deploymentId) throws IOException
+    {
+        if (!file.exists())
+            return false;
+        long fileLength = file.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            if (!deploymentId.equals(in.readUTF()) || in.readInt() != history)
+                return false;
+            clear();
+            int savedHead = in.readInt();
+            int cnt = in.readInt();
+            if (savedHead < 0 || savedHead >= history || cnt < 0 || cnt > fileLength)
+                throw new IOException("Invalid header");
+            for (int i = 0; i < cnt; i++)
+            {
+                String id = in.readUTF();
+                if (slots.containsKey(id))
+                    throw new IOException("Duplicate document " + id);
+                add(id);
+                int slot = slots.get(id);
+                lengths[slot] = in.readInt();
+                if (lengths[slot] < 0 || lengths[slot] > history)
+                    throw new IOException("Invalid history length " + lengths[slot]);
+                for (int j = 0; j < history; j++)
+                    weights[slot * history + j] = in.readFloat();
+                int ncnt = in.readInt();
+                if (ncnt < 0 || ncnt > fileLength)
+                    throw new IOException("Invalid name count " + ncnt);
+                if (ncnt > 0)
+                {
+                    names[slot] = new String[ncnt];
+                    for (int j = 0; j < ncnt; j++)
+                        names[slot][j] = in.readUTF();
+                }
+            }
+            head = savedHead;
+            return true;
+        }
+        catch (IOException e)
+        {
+            //incomplete or damaged file
+            clear();
+            return false;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    //===========================================================================================
+
+    private float score(int slot)
+    {
+        int length = lengths[slot];
+        float score = 0.0f;
+        for (int i = 0; i < length; i++)
+            score += (length - i) * weights[slot * history + (head - i + history) % history];
+        return score;
+    }
+
+    private void grow()
+    {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        names = Arrays.copyOf(names, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        weights = Arrays.copyOf(weights, capacity * history);
+    }
+
+}
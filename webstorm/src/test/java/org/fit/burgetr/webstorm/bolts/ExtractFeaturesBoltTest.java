@@ -0,0 +1,142 @@
+/**
+ * ExtractFeaturesBoltTest.java
+ */
+package org.fit.burgetr.webstorm.bolts;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.fit.burgetr.webstorm.util.FeatureCache;
+
+import backtype.storm.Constants;
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Tuple;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the batched feature extraction emits the results and acks the tuples in the input order.
+ *
+ * @author burgetr
+ */
+public class ExtractFeaturesBoltTest extends TestCase
+{
+    /** The recorded collector calls: "emit:uuid", "ack:uuid" or "fail:uuid" */
+    private List<String> events;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        events = new ArrayList<String>();
+    }
+
+    public void testBatchOrder() throws Exception
+    {
+        ExtractFeaturesBolt bolt = new ExtractFeaturesBolt("test");
+        bolt.setParallelExtraction(6, 4);
+        bolt.setMonitoring(null);
+        bolt.prepare(new HashMap<String, Object>(), null, new OutputCollector(createCollector()));
+
+        //the first images are the largest ones so that they are finished last
+        List<String> expected = new ArrayList<String>();
+        int[] sizes = {900, 700, 500, 300, -1, 100, 80, 60};
+        for (int i = 0; i < sizes.length; i++)
+        {
+            String uuid = "img" + i;
+            byte[] data = (sizes[i] > 0) ? createImage(sizes[i]) : new byte[] {1, 2, 3};
+            bolt.execute(createTuple("source", "default", Arrays.asList("Obama"), "http://example.com/" + uuid,
+                    data, uuid, FeatureCache.contentKey(data)));
+            if (sizes[i] > 0)
+            {
+                expected.add("emit:" + uuid);
+                expected.add("ack:" + uuid);
+            }
+            else
+                expected.add("fail:" + uuid);
+        }
+        //the first six images form a full batch, the rest is flushed by the tick tuple
+        assertEquals(expected.subList(0, 11), events);
+        bolt.execute(createTuple(Constants.SYSTEM_COMPONENT_ID, Constants.SYSTEM_TICK_STREAM_ID));
+        assertEquals(expected, events);
+        bolt.cleanup();
+    }
+
+    //===========================================================================================
+
+    private byte[] createImage(int size) throws IOException
+    {
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, size, size);
+        g.setColor(Color.RED);
+        g.fillOval(size / 4, size / 4, size / 2, size / 2);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+
+    private Tuple createTuple(final String component, final String stream, final Object... values)
+    {
+        return (Tuple) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Tuple.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        String name = method.getName();
+                        if (name.equals("getSourceComponent"))
+                            return component;
+                        else if (name.equals("getSourceStreamId"))
+                            return stream;
+                        else if (name.equals("getValue") || name.equals("getString") || name.equals("getBinary"))
+                            return values[(Integer) args[0]];
+                        else if (name.equals("hashCode"))
+                            return System.identityHashCode(proxy);
+                        else if (name.equals("equals"))
+                            return proxy == args[0];
+                        else if (name.equals("toString"))
+                            return "tuple" + Arrays.toString(values);
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+
+    private IOutputCollector createCollector()
+    {
+        return (IOutputCollector) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {IOutputCollector.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        String name = method.getName();
+                        if (name.equals("emit"))
+                        {
+                            List<?> values = (List<?>) args[2];
+                            events.add("emit:" + values.get(3));
+                            return new ArrayList<Integer>();
+                        }
+                        else if (name.equals("ack") || name.equals("fail"))
+                        {
+                            events.add(name + ":" + ((Tuple) args[0]).getString(3));
+                            return null;
+                        }
+                        else if (name.equals("reportError"))
+                            return null;
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+
+}
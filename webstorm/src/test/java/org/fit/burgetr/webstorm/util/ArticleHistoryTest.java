@@ -0,0 +1,93 @@
+/**
+ * ArticleHistoryTest.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the incremental page history.
+ *
+ * @author burgetr
+ */
+public class ArticleHistoryTest extends TestCase
+{
+
+    private PageAnalysis analysis(String name, String... keywords)
+    {
+        PageAnalysis ret = new PageAnalysis();
+        ret.addKeywords(name, new HashSet<String>(Arrays.asList(keywords)));
+        return ret;
+    }
+
+    public void testNewRelationsOnly()
+    {
+        ArticleHistory.Article article = new ArticleHistory(10).getArticle("http://news.com/a");
+        assertFalse(article.isUnchanged(1));
+        PageAnalysis first = article.update(1, analysis("Smith", "minister", "budget"));
+        assertEquals(2, first.getKeywords().get("Smith").size());
+        assertTrue(article.isUnchanged(1));
+
+        PageAnalysis second = article.update(2, analysis("Smith", "minister", "budget", "vote"));
+        assertEquals(new HashSet<String>(Arrays.asList("vote")), second.getKeywords().get("Smith"));
+        assertFalse(article.isUnchanged(1));
+        assertTrue(article.isUnchanged(2));
+    }
+
+    public void testPartialResult()
+    {
+        ArticleHistory.Article article = new ArticleHistory(10).getArticle("http://news.com/a");
+        PageAnalysis partial = analysis("Smith", "minister");
+        partial.setPartial(true);
+        PageAnalysis ret = article.update(1, partial);
+        assertTrue(ret.isPartial());
+        assertEquals(1, ret.getKeywords().get("Smith").size());
+        //the page must be analyzed completely next time
+        assertFalse(article.isUnchanged(1));
+
+        PageAnalysis full = article.update(1, analysis("Smith", "minister", "budget"));
+        assertEquals(new HashSet<String>(Arrays.asList("budget")), full.getKeywords().get("Smith"));
+        assertTrue(article.isUnchanged(1));
+    }
+
+    public void testEmittedFollowsPage()
+    {
+        ArticleHistory.Article article = new ArticleHistory(10).getArticle("http://news.com/live");
+        article.update(1, analysis("Smith", "update0", "live"));
+        for (int i = 1; i < 100; i++)
+        {
+            PageAnalysis ret = article.update(i + 1, analysis("Smith", "update" + i, "live"));
+            assertEquals(new HashSet<String>(Arrays.asList("update" + i)), ret.getKeywords().get("Smith"));
+        }
+        //the relations removed from the page are forgotten
+        PageAnalysis ret = article.update(1000, analysis("Smith", "update0", "live"));
+        assertEquals(new HashSet<String>(Arrays.asList("update0")), ret.getKeywords().get("Smith"));
+    }
+
+    public void testTopKeywordsAfterDeduplication()
+    {
+        KeywordRelevance.Local relevance = new KeywordRelevance().createLocal();
+        ArticleHistory.Article article = new ArticleHistory(10).getArticle("http://news.com/a");
+        PageAnalysis analysis = analysis("Smith", "minister", "budget", "vote");
+        analysis.addKeywords("Smith", new HashSet<String>(Arrays.asList("minister", "budget")));
+        analysis.addKeywords("Smith", new HashSet<String>(Arrays.asList("minister")));
+
+        //the keywords are emitted one by one in the order of their scores as the page changes
+        String[] expected = {"minister", "budget", "vote"};
+        for (int i = 0; i < expected.length; i++)
+        {
+            PageAnalysis fresh = article.getNewRelations(analysis);
+            //the occurrence counts are kept for scoring
+            assertEquals(1, fresh.getKeywordCount("Smith", "vote"));
+            relevance.count(analysis);
+            PageAnalysis top = relevance.selectTopKeywords(fresh, 1);
+            assertEquals(new HashSet<String>(Arrays.asList(expected[i])), top.getKeywords().get("Smith"));
+            article.update(i + 1, analysis, top);
+        }
+        assertTrue(article.getNewRelations(analysis).getKeywords().isEmpty());
+    }
+
+}
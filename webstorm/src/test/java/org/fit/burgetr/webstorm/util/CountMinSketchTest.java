@@ -0,0 +1,106 @@
+/**
+ * CountMinSketchTest.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the count-min sketch estimates.
+ *
+ * @author burgetr
+ */
+public class CountMinSketchTest extends TestCase
+{
+
+    public void testExactWithoutCollisions()
+    {
+        CountMinSketch sketch = new CountMinSketch(4, 16);
+        for (int i = 0; i < 5; i++)
+            sketch.add("obama");
+        sketch.add("putin");
+        assertEquals(5, sketch.estimate("obama"));
+        assertEquals(1, sketch.estimate("putin"));
+        assertEquals(0, sketch.estimate("merkel"));
+    }
+
+    public void testNeverUnderestimates()
+    {
+        //a small sketch with many collisions
+        CountMinSketch sketch = new CountMinSketch(4, 6);
+        Map<String, Integer> real = new HashMap<String, Integer>();
+        Random rnd = new Random(42);
+        for (int i = 0; i < 5000; i++)
+        {
+            String key = "k" + rnd.nextInt(500);
+            sketch.add(key);
+            Integer cnt = real.get(key);
+            real.put(key, (cnt == null) ? 1 : cnt + 1);
+        }
+        for (Map.Entry<String, Integer> entry : real.entrySet())
+            assertTrue(entry.getKey(), sketch.estimate(entry.getKey()) >= entry.getValue());
+    }
+
+    public void testMergeAndClear()
+    {
+        CountMinSketch a = new CountMinSketch(4, 10);
+        CountMinSketch b = new CountMinSketch(4, 10);
+        a.add("obama");
+        b.add("obama");
+        b.add("putin");
+        a.merge(b);
+        assertEquals(2, a.estimate("obama"));
+        assertEquals(1, a.estimate("putin"));
+        a.clear();
+        assertEquals(0, a.estimate("obama"));
+    }
+
+    public void testMergeDimensions()
+    {
+        try
+        {
+            new CountMinSketch(4, 10).merge(new CountMinSketch(3, 10));
+            fail("Merged sketches of different dimensions");
+        }
+        catch (IllegalArgumentException e)
+        {
+            //expected
+        }
+    }
+
+    public void testHalve()
+    {
+        CountMinSketch sketch = new CountMinSketch(4, 10);
+        for (int i = 0; i < 5; i++)
+            sketch.add("obama");
+        sketch.add("putin");
+        sketch.halve();
+        assertEquals(2, sketch.estimate("obama"));
+        assertEquals(0, sketch.estimate("putin"));
+    }
+
+    public void testRowsSpread()
+    {
+        //a key must use a different cell in each row, also when the upper half of its fingerprint is even
+        CountMinSketch sketch = new CountMinSketch(8, 4);
+        int even = 0;
+        for (int i = 0; i < 1000; i++)
+        {
+            long h = Fingerprint.of("k" + i);
+            if (((h >>> 32) & 1) == 0)
+                even++;
+            Set<Integer> cells = new HashSet<Integer>();
+            for (int row = 0; row < 8; row++)
+                cells.add(sketch.cell(h, row));
+            assertEquals("k" + i, 8, cells.size());
+        }
+        assertTrue(even > 0);
+    }
+
+}
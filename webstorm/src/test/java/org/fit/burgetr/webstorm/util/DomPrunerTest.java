@@ -0,0 +1,62 @@
+/**
+ * DomPrunerTest.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the pruner removes the non-content parts and keeps the main content of the pages.
+ *
+ * @author burgetr
+ */
+public class DomPrunerTest extends TestCase
+{
+    private static final String ARTICLE = "<p>President Barack Obama said on Monday that the United States would not "
+            + "intervene militarily in Ukraine, but he warned Vladimir Putin that there will be costs for any "
+            + "military intervention.</p><p>Protesters gathered in the Independence Square again on Sunday.</p>";
+
+    public void testWebFormsPage()
+    {
+        Document doc = Jsoup.parse("<html><body><form id='form1' method='post' action='Default.aspx'>"
+                + "<input type='hidden' name='__VIEWSTATE' value='abc'>"
+                + "<div id='header'>Site header</div><div class='content'>" + ARTICLE + "</div>"
+                + "<script>var x = 1;</script></form></body></html>");
+        new DomPruner(false).prune(doc);
+        assertTrue(doc.body().text().contains("Barack Obama"));
+        assertTrue(doc.body().text().contains("Vladimir Putin"));
+        assertEquals(0, doc.select("script").size());
+    }
+
+    public void testCommentaryClass()
+    {
+        Document doc = Jsoup.parse("<html><body><div class='article commentary'>" + ARTICLE + "</div>"
+                + "<div class='has-social-bar'><p>Related text by Angela Merkel</p></div>"
+                + "<div class='comments'><p>First!</p></div>"
+                + "<ul class='social-links'><li>Facebook</li></ul>"
+                + "<div id='comment_list'><p>Nice article</p></div></body></html>");
+        new DomPruner(false).prune(doc);
+        String text = doc.body().text();
+        assertTrue(text.contains("Barack Obama"));
+        assertTrue(text.contains("Angela Merkel"));
+        assertFalse(text.contains("First!"));
+        assertFalse(text.contains("Facebook"));
+        assertFalse(text.contains("Nice article"));
+    }
+
+    public void testMainContentNotRemoved()
+    {
+        //a matching wrapper that contains most of the page text is kept
+        Document doc = Jsoup.parse("<html><body><div class='menu-wrapper'><nav>Home</nav>" + ARTICLE + "</div>"
+                + "<div class='sponsor'>Buy now</div></body></html>");
+        new DomPruner(false).prune(doc);
+        String text = doc.body().text();
+        assertTrue(text.contains("Barack Obama"));
+        assertFalse(text.contains("Home"));
+        assertFalse(text.contains("Buy now"));
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * FeatureCacheTest.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the feature cache eviction and persistence.
+ *
+ * @author burgetr
+ */
+public class FeatureCacheTest extends TestCase
+{
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        file = File.createTempFile("features", ".cache");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        file.delete();
+    }
+
+    public void testContentKey()
+    {
+        assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", FeatureCache.contentKey("abc".getBytes()));
+    }
+
+    public void testEviction()
+    {
+        FeatureCache cache = new FeatureCache(2);
+        cache.put("a", new byte[] {1});
+        cache.put("b", new byte[] {2});
+        cache.get("a");
+        cache.put("c", new byte[] {3});
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    public void testPersistence()
+    {
+        FeatureCache cache = new FeatureCache(10, file, "CEDD");
+        cache.put("a", new byte[] {1, 2, 3});
+        cache.put("b", new byte[0]);
+        cache.flush();
+
+        FeatureCache loaded = new FeatureCache(10, file, "CEDD");
+        assertEquals(2, loaded.size());
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3}, loaded.get("a")));
+        assertEquals(0, loaded.get("b").length);
+
+        FeatureCache other = new FeatureCache(10, file, "CEDD,FCTH");
+        assertEquals(0, other.size());
+    }
+
+    public void testTruncatedFile() throws IOException
+    {
+        FeatureCache cache = new FeatureCache(10, file, "CEDD");
+        cache.put("a", new byte[] {1, 2, 3});
+        cache.put("b", new byte[] {4, 5, 6});
+        cache.flush();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 2);
+        raf.close();
+
+        FeatureCache loaded = new FeatureCache(10, file, "CEDD");
+        assertEquals(1, loaded.size());
+        assertNotNull(loaded.get("a"));
+    }
+
+    public void testCorruptLength() throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeUTF("CEDD");
+        out.writeUTF("a");
+        out.writeInt(3);
+        out.write(new byte[] {1, 2, 3});
+        out.writeUTF("b");
+        out.writeInt(-5);
+        out.writeUTF("c");
+        out.writeInt(Integer.MAX_VALUE);
+        out.close();
+
+        FeatureCache loaded = new FeatureCache(10, file, "CEDD");
+        assertEquals(0, loaded.size());
+        //the file has been rewritten and may be used again
+        loaded.put("d", new byte[] {7});
+        loaded.flush();
+        assertEquals(1, new FeatureCache(10, file, "CEDD").size());
+    }
+
+}
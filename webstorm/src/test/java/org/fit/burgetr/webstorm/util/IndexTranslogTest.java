@@ -0,0 +1,139 @@
+/**
+ * IndexTranslogTest.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the translog replay and the handling of a damaged log tail.
+ *
+ * @author burgetr
+ */
+public class IndexTranslogTest extends TestCase
+{
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        file = File.createTempFile("translog", ".log");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        file.delete();
+    }
+
+    private IndexTranslog.Entry entry(long seq)
+    {
+        return new IndexTranslog.Entry(seq, Arrays.asList("name" + seq, "other"), new byte[] {1, 2, (byte) seq},
+                new byte[] {(byte) seq, 4, 5, 6}, "uuid" + seq, "http://example.com/" + seq + ".jpg");
+    }
+
+    private IndexTranslog write(int count) throws IOException
+    {
+        IndexTranslog log = new IndexTranslog(file, "deployment");
+        log.reset();
+        for (int i = 1; i <= count; i++)
+            log.append(entry(i));
+        log.sync();
+        return log;
+    }
+
+    public void testReplay() throws IOException
+    {
+        write(3).close();
+
+        IndexTranslog log = new IndexTranslog(file, "deployment");
+        assertTrue(log.isReplayable());
+        List<IndexTranslog.Entry> entries = log.readEntries();
+        assertEquals(3, entries.size());
+        for (int i = 0; i < 3; i++)
+        {
+            IndexTranslog.Entry e = entries.get(i);
+            IndexTranslog.Entry expected = entry(i + 1);
+            assertEquals(expected.seq, e.seq);
+            assertEquals(expected.names, e.names);
+            assertTrue(Arrays.equals(expected.feature, e.feature));
+            assertTrue(Arrays.equals(expected.imageData, e.imageData));
+            assertEquals(expected.uuid, e.uuid);
+            assertEquals(expected.imageUrl, e.imageUrl);
+        }
+    }
+
+    public void testOtherDeployment() throws IOException
+    {
+        write(1).close();
+        assertFalse(new IndexTranslog(file, "other").isReplayable());
+        file.delete();
+        assertFalse(new IndexTranslog(file, "deployment").isReplayable());
+    }
+
+    public void testReset() throws IOException
+    {
+        IndexTranslog log = write(2);
+        log.reset();
+        log.close();
+        assertTrue(log.isReplayable());
+        assertEquals(0, log.readEntries().size());
+    }
+
+    public void testTruncatedTail() throws IOException
+    {
+        write(3).close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        List<IndexTranslog.Entry> entries = new IndexTranslog(file, "deployment").readEntries();
+        assertEquals(2, entries.size());
+        assertEquals(2, entries.get(1).seq);
+    }
+
+    public void testCorruptTail() throws IOException
+    {
+        write(3).close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 1);
+        int last = raf.read();
+        raf.seek(raf.length() - 1);
+        raf.write(last ^ 0xff);
+        raf.close();
+
+        List<IndexTranslog.Entry> entries = new IndexTranslog(file, "deployment").readEntries();
+        assertEquals(2, entries.size());
+    }
+
+    public void testCorruptLength() throws IOException
+    {
+        write(2).close();
+        long end = file.length();
+        IndexTranslog log = new IndexTranslog(file, "deployment");
+        List<IndexTranslog.Entry> entries = log.readEntries();
+        assertEquals(2, entries.size());
+
+        //a partially written header of the next record with a garbage length
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(end);
+        raf.writeInt(Integer.MAX_VALUE);
+        raf.writeLong(0);
+        raf.close();
+        assertEquals(2, log.readEntries().size());
+
+        raf = new RandomAccessFile(file, "rw");
+        raf.seek(end);
+        raf.writeInt(-5);
+        raf.close();
+        assertEquals(2, log.readEntries().size());
+    }
+
+}
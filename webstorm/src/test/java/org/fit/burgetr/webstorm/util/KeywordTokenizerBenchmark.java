@@ -0,0 +1,39 @@
+/**
+ * KeywordTokenizerBenchmark.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+/**
+ * A simple micro-benchmark that compares the keyword tokenizer with the original regular expression
+ * based implementation. It is not run by the test suite; run it manually with the test classpath:
+ * {@code java org.fit.burgetr.webstorm.util.KeywordTokenizerBenchmark [rounds]}
+ *
+ * @author burgetr
+ */
+public class KeywordTokenizerBenchmark
+{
+
+    public static void main(String[] args)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++)
+            sb.append(KeywordTokenizerTest.SAMPLE);
+        final String text = sb.toString();
+        final int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+
+        for (int pass = 0; pass < 3; pass++)
+        {
+            int sink = 0;
+            long t1 = System.nanoTime();
+            for (int i = 0; i < rounds; i++)
+                sink += KeywordTokenizerTest.referenceKeywords(text).size();
+            long t2 = System.nanoTime();
+            for (int i = 0; i < rounds; i++)
+                sink += KeywordTokenizer.extractKeywords(text).size();
+            long t3 = System.nanoTime();
+            System.out.println("Pass " + pass + ": regex " + ((t2 - t1) / rounds) + " ns/op, tokenizer "
+                    + ((t3 - t2) / rounds) + " ns/op (" + sink + ")");
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * KeywordTokenizerTest.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the single-pass tokenizer gives the same results as the original regular expression
+ * based keyword extraction.
+ *
+ * @author burgetr
+ */
+public class KeywordTokenizerTest extends TestCase
+{
+    /** A sample news text used by the tests and by the benchmark */
+    public static final String SAMPLE = "President Barack Obama said on Monday that the United States would not "
+            + "intervene militarily in Ukraine, but he warned Russia's Vladimir Putin that there "
+            + "will be costs for any military intervention. Protesters gathered in Kiev's Independence "
+            + "Square again\ton Sunday\n(AFP photo) -- 24. 2. 2014 The EU is \"ready to help\" ";
+
+    private static final Pattern WORD_EXPR = Pattern.compile("[A-Za-z]+");
+
+    /**
+     * The original regular expression based implementation.
+     */
+    public static Set<String> referenceKeywords(String text)
+    {
+        HashSet<String> ret = new HashSet<String>();
+        String[] allWords = text.toLowerCase().split("\\s+");
+        for (String word : allWords)
+        {
+            if (word.length() > 1 && WORD_EXPR.matcher(word).matches() && !StopList.contains(word))
+                ret.add(word);
+        }
+        return ret;
+    }
+
+    public void testSample()
+    {
+        assertEquals(referenceKeywords(SAMPLE), KeywordTokenizer.extractKeywords(SAMPLE));
+    }
+
+    public void testWhiteSpace()
+    {
+        String[] texts = { "", " ", "  \t\n ", " Obama", "Obama ", "\u000BObama\fPutin\r\nKiev\t",
+                "Obama   Putin", "x y zz", "a about above Obama" };
+        for (String text : texts)
+            assertEquals("'" + text + "'", referenceKeywords(text), KeywordTokenizer.extractKeywords(text));
+    }
+
+    public void testNonLetters()
+    {
+        String[] texts = { "Kiev's Putin.", "abc1 2abc a-b OK", "Příliš žluťoučký kůň", "(AFP) photo",
+                "ALLCAPS MiXeD lower" };
+        for (String text : texts)
+            assertEquals("'" + text + "'", referenceKeywords(text), KeywordTokenizer.extractKeywords(text));
+    }
+
+    public void testStopWords()
+    {
+        Set<String> keywords = KeywordTokenizer.extractKeywords("About the Ukraine AND Russia");
+        assertFalse(keywords.contains("about"));
+        assertFalse(keywords.contains("the"));
+        assertFalse(keywords.contains("and"));
+        assertTrue(keywords.contains("ukraine"));
+        assertTrue(keywords.contains("russia"));
+    }
+
+    public void testAddsToSet()
+    {
+        Set<String> result = new HashSet<String>();
+        result.add("existing");
+        KeywordTokenizer.extractKeywords("Obama Putin", result);
+        assertEquals(3, result.size());
+    }
+
+}
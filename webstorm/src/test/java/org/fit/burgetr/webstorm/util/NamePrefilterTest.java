@@ -0,0 +1,35 @@
+/**
+ * NamePrefilterTest.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the detection of the name candidates.
+ *
+ * @author burgetr
+ */
+public class NamePrefilterTest extends TestCase
+{
+
+    public void testCandidates()
+    {
+        assertTrue(NamePrefilter.containsCandidate("Yesterday, the minister John Smith said"));
+        assertTrue(NamePrefilter.containsCandidate("as reported by J. Smith in the morning"));
+        assertTrue(NamePrefilter.containsCandidate("interview with Jean-Luc O'Neill"));
+        assertTrue(NamePrefilter.containsCandidate("premiér Bohuslav Sobotka řekl"));
+        assertTrue(NamePrefilter.containsCandidate("John\n  Smith"));
+    }
+
+    public void testNoCandidates()
+    {
+        assertFalse(NamePrefilter.containsCandidate(""));
+        assertFalse(NamePrefilter.containsCandidate("the weather will be sunny. Temperatures rise"));
+        assertFalse(NamePrefilter.containsCandidate("Rain, Snow and wind"));
+        assertFalse(NamePrefilter.containsCandidate("BREAKING NEWS: prices rise"));
+        assertFalse(NamePrefilter.containsCandidate("London. Paris"));
+        assertFalse(NamePrefilter.containsCandidate("A B C 12 34"));
+    }
+
+}
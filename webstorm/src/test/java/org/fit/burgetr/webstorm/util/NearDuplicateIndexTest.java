@@ -0,0 +1,90 @@
+/**
+ * NearDuplicateIndexTest.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the near-duplicate lookup, the distance bound and the eviction order.
+ *
+ * @author burgetr
+ */
+public class NearDuplicateIndexTest extends TestCase
+{
+    private static final long HASH = 0x5a3c96e1f00f2d4bL;
+
+    /** The chunk boundaries for maxDistance = 4: 12, 13, 13, 13 and 13 bits */
+    private static final int[] CHUNK_START = {0, 12, 25, 38, 51};
+
+    public void testWithinDistance()
+    {
+        NearDuplicateIndex index = new NearDuplicateIndex(4, 100);
+        index.add(HASH, "a");
+        //one different bit in each of four chunks, only the last chunk is shared
+        long h = HASH;
+        for (int i = 0; i < 4; i++)
+            h ^= 1L << CHUNK_START[i];
+        assertEquals(4, PerceptualHash.distance(HASH, h));
+        assertEquals("a", index.find(h));
+        assertEquals("a", index.find(HASH));
+    }
+
+    public void testNoSharedChunk()
+    {
+        NearDuplicateIndex index = new NearDuplicateIndex(4, 100);
+        index.add(HASH, "a");
+        long h = HASH;
+        for (int i = 0; i < 5; i++)
+            h ^= 1L << CHUNK_START[i];
+        assertEquals(5, PerceptualHash.distance(HASH, h));
+        assertNull(index.find(h));
+    }
+
+    public void testSharedChunkOverDistance()
+    {
+        NearDuplicateIndex index = new NearDuplicateIndex(4, 100);
+        index.add(HASH, "a");
+        //five bits in the first chunk: the remaining chunks match but the distance is too large
+        long h = HASH ^ 0x1fL;
+        assertEquals(5, PerceptualHash.distance(HASH, h));
+        assertNull(index.find(h));
+        assertEquals("a", index.find(HASH ^ 0xfL));
+    }
+
+    public void testClosest()
+    {
+        NearDuplicateIndex index = new NearDuplicateIndex(4, 100);
+        index.add(HASH ^ 0x7L, "far");
+        index.add(HASH ^ 0x1L, "near");
+        index.add(HASH ^ (0x3L << 40), "other");
+        assertEquals("near", index.find(HASH));
+    }
+
+    public void testRemove()
+    {
+        NearDuplicateIndex index = new NearDuplicateIndex(4, 100);
+        index.add(HASH, "a");
+        index.add(HASH ^ 0x3L, "b");
+        index.remove("a");
+        assertEquals(1, index.size());
+        assertEquals("b", index.find(HASH));
+        index.remove("b");
+        assertNull(index.find(HASH));
+    }
+
+    public void testEvictionOrder()
+    {
+        NearDuplicateIndex index = new NearDuplicateIndex(4, 2);
+        index.add(HASH, "a");
+        index.add(HASH ^ 0x3L, "b");
+        //both images are candidates, only the matched one becomes recently used
+        assertEquals("a", index.find(HASH));
+        index.add(~HASH, "c");
+        assertEquals(2, index.size());
+        assertEquals("a", index.find(HASH));
+        assertEquals("a", index.find(HASH ^ 0x3L));
+        assertEquals("c", index.find(~HASH));
+    }
+
+}
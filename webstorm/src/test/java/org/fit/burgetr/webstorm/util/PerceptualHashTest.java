@@ -0,0 +1,69 @@
+/**
+ * PerceptualHashTest.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the perceptual hash of resized and blank images.
+ *
+ * @author burgetr
+ */
+public class PerceptualHashTest extends TestCase
+{
+
+    public void testResizedCopy()
+    {
+        BufferedImage img = createImage(400, 300);
+        BufferedImage small = new BufferedImage(133, 100, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = small.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(img, 0, 0, 133, 100, null);
+        g.dispose();
+        long h1 = PerceptualHash.dHash(img);
+        long h2 = PerceptualHash.dHash(small);
+        assertTrue(PerceptualHash.isDistinctive(h1));
+        assertTrue(PerceptualHash.distance(h1, h2) <= 4);
+    }
+
+    public void testBlankImage()
+    {
+        BufferedImage img = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 200, 200);
+        g.dispose();
+        assertFalse(PerceptualHash.isDistinctive(PerceptualHash.dHash(img)));
+        assertFalse(PerceptualHash.isDistinctive(0L));
+        assertFalse(PerceptualHash.isDistinctive(-1L));
+    }
+
+    public void testBytes()
+    {
+        long h = 0x8123456789abcdefL;
+        assertEquals(h, PerceptualHash.fromBytes(PerceptualHash.toBytes(h)));
+    }
+
+    private BufferedImage createImage(int w, int h)
+    {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, w, h);
+        g.setColor(Color.BLUE);
+        g.fillOval(w / 5, h / 6, w / 3, h / 2);
+        g.setColor(Color.ORANGE);
+        g.fillRect(w / 2, h / 3, w / 3, h / 2);
+        g.setColor(Color.BLACK);
+        g.fillRect(0, h - h / 8, w, h / 8);
+        g.dispose();
+        return img;
+    }
+
+}
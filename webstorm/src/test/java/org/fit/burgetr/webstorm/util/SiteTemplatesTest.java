@@ -0,0 +1,74 @@
+/**
+ * SiteTemplatesTest.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the recognition of the site template blocks.
+ *
+ * @author burgetr
+ */
+public class SiteTemplatesTest extends TestCase
+{
+    private static final String HEADER = "<div id='header'>The Daily News - all the news you need every day</div>";
+    private static final String FOOTER = "<div id='footer'>Copyright The Daily News, all rights reserved</div>";
+
+    private Document page(String article)
+    {
+        return Jsoup.parse("<html><body>" + HEADER + "<div id='article'><p>" + article + "</p></div>" + FOOTER + "</body></html>");
+    }
+
+    private String article(int i)
+    {
+        return "The article number " + i + " describes what John Smith said about the weather yesterday.";
+    }
+
+    public void testTemplateBlocks()
+    {
+        SiteTemplates templates = new SiteTemplates(2);
+        for (int i = 0; i < 2; i++)
+            assertEquals(0, templates.removeTemplateBlocks("news.com", "http://news.com/" + i, page(article(i)).body()));
+        Document doc = page(article(5));
+        assertEquals(2, templates.removeTemplateBlocks("news.com", "http://news.com/5", doc.body()));
+        assertNull(doc.getElementById("header"));
+        assertNull(doc.getElementById("footer"));
+        assertNotNull(doc.getElementById("article"));
+    }
+
+    public void testUrlVariants()
+    {
+        SiteTemplates templates = new SiteTemplates(2);
+        String[] urls = {"http://news.com/a?utm_source=rss", "https://NEWS.com/a?utm_source=twitter", "http://news.com/a#comments"};
+        for (String url : urls)
+            templates.removeTemplateBlocks("news.com", url, page(article(1)).body());
+        //the same page has been counted once, nothing is a template yet
+        Document doc = page(article(1));
+        assertEquals(0, templates.removeTemplateBlocks("news.com", "http://news.com/b", doc.body()));
+        assertNotNull(doc.getElementById("header"));
+    }
+
+    public void testMainTextKept()
+    {
+        SiteTemplates templates = new SiteTemplates(2);
+        //a page without any query variants but a repeated long article text
+        String text = article(1) + " " + article(2) + " " + article(3);
+        for (int i = 0; i < 3; i++)
+            templates.removeTemplateBlocks("news.com", "http://news.com/" + i, page(text).body());
+        Document doc = page(text);
+        assertEquals(2, templates.removeTemplateBlocks("news.com", "http://news.com/9", doc.body()));
+        assertNotNull(doc.getElementById("article"));
+    }
+
+    public void testNormalizeUrl()
+    {
+        assertEquals("news.com/a/b", SiteTemplates.normalizeUrl("https://News.COM/a/b?x=1#top"));
+        assertEquals("news.com:8080/", SiteTemplates.normalizeUrl("http://news.com:8080/"));
+        assertEquals("news.com/a", SiteTemplates.normalizeUrl("news.com/a?x=1"));
+    }
+
+}
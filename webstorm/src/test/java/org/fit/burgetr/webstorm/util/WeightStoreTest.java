@@ -0,0 +1,238 @@
+/**
+ * WeightStoreTest.java
+ */
+package org.fit.burgetr.webstorm.util;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the weight history, the scoring and the persistence of the weight store.
+ *
+ * @author burgetr
+ */
+public class WeightStoreTest extends TestCase
+{
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        file = File.createTempFile("weights", ".bin");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        file.delete();
+    }
+
+    public void testWrapAround()
+    {
+        WeightStore store = new WeightStore(3);
+        store.add("a");
+        store.addWeight("a", 1.0f);
+        assertEquals(1.0f, store.getScore("a"), 0.0f);
+        store.rollover();
+        store.addWeight("a", 2.0f);
+        //the history length is limited to history - 1 windows
+        assertEquals(2 * 2.0f + 1 * 1.0f, store.getScore("a"), 0.0f);
+        store.rollover();
+        store.addWeight("a", 4.0f);
+        assertEquals(2 * 4.0f + 1 * 2.0f, store.getScore("a"), 0.0f);
+        //the head has wrapped around, the new window must start empty
+        store.rollover();
+        assertEquals(0.0f, store.getWeight("a"), 0.0f);
+        assertEquals(1 * 4.0f, store.getScore("a"), 0.0f);
+        store.rollover();
+        assertEquals(0.0f, store.getScore("a"), 0.0f);
+    }
+
+    public void testScoreParity()
+    {
+        final int history = 4;
+        WeightStore store = new WeightStore(history);
+        FieldWeights[] reference = new FieldWeights[5];
+        for (int i = 0; i < reference.length; i++)
+        {
+            store.add("d" + i);
+            reference[i] = new FieldWeights(history);
+        }
+        Random rnd = new Random(42);
+        for (int step = 0; step < 500; step++)
+        {
+            if (rnd.nextInt(5) == 0)
+            {
+                store.rollover();
+                for (FieldWeights ref : reference)
+                    ref.rollover();
+            }
+            else
+            {
+                int i = rnd.nextInt(reference.length);
+                float w = rnd.nextFloat();
+                store.addWeight("d" + i, w);
+                reference[i].addWeight(w);
+            }
+            for (int i = 0; i < reference.length; i++)
+                assertEquals("step " + step, reference[i].score(), store.getScore("d" + i), 1e-4f);
+        }
+    }
+
+    public void testSlotReuse()
+    {
+        WeightStore store = new WeightStore(3);
+        store.add("a");
+        store.add("b");
+        store.addWeight("a", 5.0f);
+        store.addNames("a", Arrays.asList("x"));
+        store.addWeight("b", 1.0f);
+        store.remove("a");
+        assertFalse(store.contains("a"));
+        assertEquals(-1.0f, store.getScore("a"), 0.0f);
+        assertFalse(store.addWeight("a", 1.0f));
+
+        store.add("c");
+        assertEquals(2, store.size());
+        assertEquals(0.0f, store.getScore("c"), 0.0f);
+        assertEquals(0.0f, store.getWeight("c"), 0.0f);
+        assertTrue(store.getNames("c").isEmpty());
+        assertEquals(1.0f, store.getScore("b"), 0.0f);
+        assertEquals(Arrays.asList("b", "c"), store.rank());
+    }
+
+    public void testSaveLoad() throws IOException
+    {
+        WeightStore store = filledStore();
+        store.save(file, "deployment");
+
+        WeightStore loaded = new WeightStore(3);
+        assertTrue(loaded.load(file, "deployment"));
+        assertEquals(store.size(), loaded.size());
+        assertEquals(store.rank(), loaded.rank());
+        for (String id : store.rank())
+        {
+            assertEquals(store.getScore(id), loaded.getScore(id), 0.0f);
+            assertEquals(store.getWeight(id), loaded.getWeight(id), 0.0f);
+            assertEquals(store.getNames(id), loaded.getNames(id));
+        }
+        //the head position must be restored as well
+        store.rollover();
+        loaded.rollover();
+        for (String id : store.rank())
+            assertEquals(store.getScore(id), loaded.getScore(id), 0.0f);
+
+        assertFalse(new WeightStore(3).load(file, "other"));
+        assertFalse(new WeightStore(4).load(file, "deployment"));
+        file.delete();
+        assertFalse(new WeightStore(3).load(file, "deployment"));
+    }
+
+    public void testTruncatedFile() throws IOException
+    {
+        filledStore().save(file, "deployment");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        WeightStore loaded = filledStore();
+        assertFalse(loaded.load(file, "deployment"));
+        assertEquals(0, loaded.size());
+    }
+
+    public void testCorruptFile() throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeUTF("deployment");
+        out.writeInt(3);
+        out.writeInt(0);
+        out.writeInt(1);
+        out.writeUTF("a");
+        out.writeInt(1000); //invalid history length
+        for (int i = 0; i < 3; i++)
+            out.writeFloat(1.0f);
+        out.writeInt(0);
+        out.close();
+        WeightStore loaded = new WeightStore(3);
+        assertFalse(loaded.load(file, "deployment"));
+        assertEquals(0, loaded.size());
+
+        out = new DataOutputStream(new FileOutputStream(file));
+        out.writeUTF("deployment");
+        out.writeInt(3);
+        out.writeInt(7); //invalid head
+        out.writeInt(Integer.MAX_VALUE);
+        out.close();
+        assertFalse(loaded.load(file, "deployment"));
+        assertEquals(0, loaded.size());
+    }
+
+    private WeightStore filledStore()
+    {
+        WeightStore store = new WeightStore(3);
+        store.add("a");
+        store.add("b");
+        store.add("c");
+        store.addWeight("a", 1.0f);
+        store.rollover();
+        store.addWeight("a", 0.5f);
+        store.addWeight("b", 2.0f);
+        store.addNames("b", Arrays.asList("x", "y"));
+        store.rollover();
+        store.addWeight("c", 0.25f);
+        return store;
+    }
+
+    /**
+     * The weight history as it used to be kept in the stored fields "0" to "history - 1" and "length"
+     * of the indexed documents.
+     */
+    private static class FieldWeights
+    {
+        private int history;
+        private float[] fields;
+        private int length;
+
+        public FieldWeights(int history)
+        {
+            this.history = history;
+            fields = new float[history];
+        }
+
+        public void addWeight(float w)
+        {
+            if (length == 0)
+                length = 1;
+            fields[0] += w;
+        }
+
+        public void rollover()
+        {
+            for (int counter = length; counter > 0; counter--)
+            {
+                if (counter < history)
+                    fields[counter] = fields[counter - 1];
+            }
+            fields[0] = 0.0f;
+            if (length < history - 1)
+                length++;
+        }
+
+        public float score()
+        {
+            float score = 0.0f;
+            for (int i = 0; i < length; i++)
+                score += (length - i) * fields[i];
+            return score;
+        }
+    }
+
+}